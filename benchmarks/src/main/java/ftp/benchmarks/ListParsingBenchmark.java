@@ -0,0 +1,84 @@
+package ftp.benchmarks;
+
+import ftp.RemoteFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the LIST output into {@link RemoteFile}s: the line reader with the split based constructor
+ * against the byte based {@link RemoteFile#fromListing(byte[], int, int, java.nio.charset.Charset)},
+ * which decodes the names lazily.
+ *
+ * @author Vojko Vladimir
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ListParsingBenchmark {
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    private byte[] listing;
+
+    @Setup
+    public void setUp() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            boolean directory = i % 10 == 0;
+            lines.append(LocalFTPServer.listingLine("file-" + i + (directory ? "" : ".dat"),
+                    directory ? 4096 : i * 1024L, directory)).append("\r\n");
+        }
+        listing = lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void splitParser(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(listing),
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            RemoteFile file = new RemoteFile(line);
+            blackhole.consume(file.getName());
+            blackhole.consume(file.getSize());
+        }
+    }
+
+    @Benchmark
+    public void byteParser(Blackhole blackhole) {
+        parse(blackhole, true);
+    }
+
+    /**
+     * Only the eagerly parsed fields are read, e.g., when the files are filtered by size.
+     */
+    @Benchmark
+    public void byteParserWithoutNames(Blackhole blackhole) {
+        parse(blackhole, false);
+    }
+
+    private void parse(Blackhole blackhole, boolean names) {
+        int start = 0;
+        for (int i = 0; i < listing.length; i++) {
+            if (listing[i] == '\n') {
+                int end = (i > start && listing[i - 1] == '\r') ? i - 1 : i;
+                RemoteFile file = RemoteFile.fromListing(listing, start, end - start, StandardCharsets.UTF_8);
+                if (names) {
+                    blackhole.consume(file.getName());
+                }
+                blackhole.consume(file.getSize());
+                start = i + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package ftp.benchmarks;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Minimal FTP server running in the same JVM on the loopback interface, so the benchmarks measure the client
+ * and not the network or the disk. Files are kept in memory, uploaded data is read and dropped.
+ * Supports the commands used by the benchmarks: login, PASV, LIST, RETR, STOR, SIZE and the transfer parameters
+ * (stream mode only).
+ *
+ * @author Vojko Vladimir
+ */
+public class LocalFTPServer implements Closeable {
+
+    private static final String CRLF = "\r\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DATA_ACCEPT_TIMEOUT = 10000;
+    /**
+     * Room for the load test sessions connecting at once.
+     */
+    private static final int BACKLOG = 1024;
+
+    private final ServerSocket server;
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+    private final ExecutorService sessions;
+    private volatile boolean closed = false;
+
+    /**
+     * Start the server on the free port of the loopback interface.
+     *
+     * @throws java.io.IOException If the server socket can't be opened.
+     */
+    public LocalFTPServer() throws IOException {
+        server = new ServerSocket(0, BACKLOG, InetAddress.getLoopbackAddress());
+        sessions = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LocalFTPServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sessions.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public String getHost() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Add the file to the root directory of the server.
+     *
+     * @param name    file name.
+     * @param content file content.
+     */
+    public void putFile(String name, byte[] content) {
+        files.put(name, content);
+    }
+
+    /**
+     * Format the line of the Unix "ls -l" listing, as sent by LIST.
+     *
+     * @param name      file name.
+     * @param size      file size.
+     * @param directory whether the entry is a directory.
+     * @return listing line without the line terminator.
+     */
+    public static String listingLine(String name, long size, boolean directory) {
+        return (directory ? "drwxr-xr-x 2" : "-rw-r--r-- 1") + " owner group " + size + " Jan  1 10:00 " + name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        sessions.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sessions.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        new Session(socket).run();
+                    } catch (IOException ignored) {
+                        // The client closed the connection.
+                    } finally {
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Control connection of one client.
+     */
+    private class Session {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final StringBuilder line = new StringBuilder();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private ServerSocket passive;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void run() throws IOException {
+            try {
+                reply("220 LocalFTPServer ready");
+                String command;
+                while ((command = readLine()) != null) {
+                    int space = command.indexOf(' ');
+                    String verb = ((space < 0) ? command : command.substring(0, space)).toUpperCase(Locale.ROOT);
+                    String argument = (space < 0) ? null : command.substring(space + 1);
+                    if (!execute(verb, argument)) {
+                        return;
+                    }
+                }
+            } finally {
+                closeQuietly(passive);
+            }
+        }
+
+        private boolean execute(String verb, String argument) throws IOException {
+            switch (verb) {
+                case "USER":
+                    reply("331 Password required");
+                    break;
+                case "PASS":
+                    reply("230 Logged in");
+                    break;
+                case "SYST":
+                    reply("215 UNIX Type: L8");
+                    break;
+                case "FEAT":
+                    reply("211-Features:" + CRLF + " SIZE" + CRLF + " UTF8" + CRLF + "211 End");
+                    break;
+                case "OPTS":
+                case "TYPE":
+                case "NOOP":
+                    reply("200 OK");
+                    break;
+                case "MODE":
+                    reply("S".equalsIgnoreCase(argument) ? "200 Mode set" : "504 Mode not supported");
+                    break;
+                case "PWD":
+                    reply("257 \"/\" is the current directory");
+                    break;
+                case "CWD":
+                case "DELE":
+                    reply("250 OK");
+                    break;
+                case "SIZE":
+                    byte[] file = files.get(name(argument));
+                    reply((file != null) ? "213 " + file.length : "550 No such file");
+                    break;
+                case "PASV":
+                    closeQuietly(passive);
+                    passive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                    passive.setSoTimeout(DATA_ACCEPT_TIMEOUT);
+                    int port = passive.getLocalPort();
+                    reply("227 Entering Passive Mode (127,0,0,1," + (port >> 8) + "," + (port & 0xff) + ")");
+                    break;
+                case "LIST":
+                    list();
+                    break;
+                case "RETR":
+                    retrieve(argument);
+                    break;
+                case "STOR":
+                    store();
+                    break;
+                case "QUIT":
+                    reply("221 Bye");
+                    return false;
+                default:
+                    reply("502 Command not implemented");
+            }
+            return true;
+        }
+
+        private void list() throws IOException {
+            StringBuilder listing = new StringBuilder();
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                listing.append(listingLine(entry.getKey(), entry.getValue().length, false)).append(CRLF);
+            }
+            byte[] bytes = listing.toString().getBytes(StandardCharsets.UTF_8);
+            reply("150 Opening data connection for file list");
+            Socket data = openData();
+            try {
+                data.getOutputStream().write(bytes);
+            } finally {
+                data.close();
+            }
+            reply("226 Transfer complete");
+        }
+
+        private void retrieve(String argument) throws IOException {
+            byte[] file = files.get(name(argument));
+            if (file == null) {
+                reply("550 No such file");
+                return;
+            }
+            reply("150 Opening BINARY mode data connection for " + argument + " (" + file.length + " bytes)");
+            Socket data = openData();
+            try {
+                OutputStream dataOut = data.getOutputStream();
+                for (int offset = 0; offset < file.length; offset += BUFFER_SIZE) {
+                    dataOut.write(file, offset, Math.min(BUFFER_SIZE, file.length - offset));
+                }
+            } finally {
+                data.close();
+            }
+            reply("226 Transfer complete");
+        }
+
+        private void store() throws IOException {
+            reply("150 Opening BINARY mode data connection");
+            Socket data = openData();
+            try {
+                InputStream dataIn = data.getInputStream();
+                while (dataIn.read(buffer) >= 0) {
+                    // Uploaded data is dropped.
+                }
+            } finally {
+                data.close();
+            }
+            reply("226 Transfer complete");
+        }
+
+        private Socket openData() throws IOException {
+            if (passive == null) {
+                throw new SocketException("PASV was not sent");
+            }
+            try {
+                Socket data = passive.accept();
+                data.setTcpNoDelay(true);
+                return data;
+            } finally {
+                closeQuietly(passive);
+                passive = null;
+            }
+        }
+
+        private String name(String argument) {
+            if (argument == null) {
+                return "";
+            }
+            return argument.startsWith("/") ? argument.substring(1) : argument;
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                line.append((char) b);
+            }
+            return null;
+        }
+
+        private void reply(String reply) throws IOException {
+            out.write((reply + CRLF).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ftp.benchmarks;
+
+import ftp.Debugger;
+import ftp.connection.Command;
+import ftp.connection.ControlConnection;
+import ftp.connection.Reply;
+import ftp.connection.ReplyDecoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the server replies: decoding of the buffered bytes as done by the reader of
+ * {@link ControlConnection}, and the whole command round trip through {@link ControlConnection#readReply}
+ * against {@link LocalFTPServer}.
+ *
+ * @author Vojko Vladimir
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplyParsingBenchmark {
+
+    /**
+     * Replies per buffer, as received in one read after the pipelined commands.
+     */
+    private static final int REPLIES = 64;
+    private static final String SINGLE_LINE = "250 Requested file action okay, completed.\r\n";
+    private static final String MULTI_LINE = "211-Features:\r\n MDTM\r\n REST STREAM\r\n SIZE\r\n"
+            + " MLST type*;size*;modify*;perm*;\r\n MODE Z\r\n UTF8\r\n211 End\r\n";
+    private static final String NON_ASCII = "257 \"/Überweisungen/Отчёты/報告\" created\r\n";
+
+    private final ReplyDecoder decoder = new ReplyDecoder(StandardCharsets.UTF_8);
+    private final Reply reply = new Reply();
+    private ByteBuffer singleLine;
+    private ByteBuffer multiLine;
+    private ByteBuffer nonAscii;
+    private LocalFTPServer server;
+    private ControlConnection control;
+
+    @Setup
+    public void setUp() throws Exception {
+        singleLine = repeat(SINGLE_LINE);
+        multiLine = repeat(MULTI_LINE);
+        nonAscii = repeat(NON_ASCII);
+
+        server = new LocalFTPServer();
+        control = new ControlConnection(new Debugger());
+        control.open(server.getHost(), server.getPort());
+        control.login("user", "pass");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        control.quit();
+        server.close();
+    }
+
+    private static ByteBuffer repeat(String reply) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] encoded = reply.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < REPLIES; i++) {
+            bytes.write(encoded, 0, encoded.length);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLIES)
+    public void decodeSingleLine(Blackhole blackhole) {
+        decodeAll(singleLine, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLIES)
+    public void decodeMultiLine(Blackhole blackhole) {
+        decodeAll(multiLine, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLIES)
+    public void decodeNonAscii(Blackhole blackhole) {
+        decodeAll(nonAscii, blackhole);
+    }
+
+    private void decodeAll(ByteBuffer buffer, Blackhole blackhole) {
+        buffer.rewind();
+        Reply decoded;
+        while ((decoded = decoder.decode(buffer, reply)) != null) {
+            blackhole.consume(decoded.code);
+            blackhole.consume(decoded.text);
+        }
+    }
+
+    /**
+     * NOOP sent and its reply read by {@link ControlConnection}, over the loopback connection.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int roundTrip() throws Exception {
+        return control.sendCommand(Command.NOOP, null, reply).code;
+    }
+}
@@ -0,0 +1,112 @@
+package ftp.benchmarks;
+
+import ftp.FTPClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download and upload throughput through {@link FTPClient} and the data connection, against
+ * {@link LocalFTPServer}. Every transfer includes PASV, the data connection setup and the final reply,
+ * so small files show the per-transfer overhead and large files the copy throughput.
+ * The downloads compare the whole-file byte[] (the original getFile), the streaming copy, the copy to a file
+ * and the memory-mapped file (which also sends SIZE before the transfer).
+ * The "bytes" counter is reported in bytes per second.
+ *
+ * @author Vojko Vladimir
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferBenchmark {
+
+    private static final String REMOTE_FILE = "file.dat";
+    private static final String UPLOADED_FILE = "upload.dat";
+
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    private byte[] content;
+    private LocalFTPServer server;
+    private FTPClient client;
+    private Path localFile;
+    private Path downloadedFile;
+
+    /**
+     * Transferred bytes, reported by JMH as the rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+        localFile = Files.createTempFile("ftp-benchmark", ".dat");
+        Files.write(localFile, content);
+        downloadedFile = Files.createTempFile("ftp-benchmark", ".dl");
+
+        server = new LocalFTPServer();
+        server.putFile(REMOTE_FILE, content);
+        client = new FTPClient();
+        client.connect(server.getHost(), server.getPort());
+        client.login("user", "pass");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.disconnect();
+        server.close();
+        Files.deleteIfExists(localFile);
+        Files.deleteIfExists(downloadedFile);
+    }
+
+    @Benchmark
+    public byte[] downloadToArray(Bytes counter) throws Exception {
+        byte[] file = client.getFile(REMOTE_FILE, null);
+        counter.bytes += file.length;
+        return file;
+    }
+
+    @Benchmark
+    public void downloadToStream(Bytes counter) throws Exception {
+        counter.bytes += client.getFile(REMOTE_FILE, OutputStream.nullOutputStream(), null);
+    }
+
+    @Benchmark
+    public void downloadToFile(Bytes counter) throws Exception {
+        counter.bytes += client.getFile(REMOTE_FILE, downloadedFile, null);
+    }
+
+    @Benchmark
+    public void downloadToMappedFile(Bytes counter) throws Exception {
+        counter.bytes += client.getFileMapped(REMOTE_FILE, downloadedFile, null);
+    }
+
+    @Benchmark
+    public void uploadFromMemory(Bytes counter) throws Exception {
+        client.sendFile(content, UPLOADED_FILE, null);
+        counter.bytes += size;
+    }
+
+    @Benchmark
+    public void uploadFromFile(Bytes counter) throws Exception {
+        client.sendFile(localFile, UPLOADED_FILE, null);
+        counter.bytes += size;
+    }
+}
@@ -0,0 +1,458 @@
+package ftp.loadtest;
+
+import ftp.FTPClient;
+import ftp.benchmarks.LocalFTPServer;
+import ftp.exception.FTPException;
+import ftp.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test runner: starts the sessions of the {@link Scenario}, each with its own {@link FTPClient}, ramps them
+ * up evenly, runs the mix of operations and reports the throughput, latency percentiles per operation, and GC
+ * and allocation of the client during the measured time.
+ * <p>
+ * Usage: {@code LoadTest <scenario.properties>}
+ *
+ * @author Vojko Vladimir
+ */
+public class LoadTest {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double MEGABYTE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 5000;
+    private static final long RECONNECT_DELAY = 1000;
+    private static final String SESSION_THREAD_NAME = "LoadTest-";
+    private static final String SERVER_THREAD_NAME = "LocalFTPServer";
+    private static final String LOCAL_ENTRY = "entry-%d.dat";
+    private static final String UPLOADED_FILE = "lt-%d-%d.dat";
+    private static final String ROW_FORMAT = "%-10s %10s %8s %11s %9s %9s %9s %9s %9s%n";
+    private static final String CSV_HEADER =
+            "operation,count,errors,ops_per_sec,mb_per_sec,p50_ms,p99_ms,p999_ms,max_ms";
+
+    private final Scenario scenario;
+    private final Map<Operation, OperationStats> stats = new EnumMap<Operation, OperationStats>(Operation.class);
+    private final Operation[] mixOperations;
+    private final int[] mixWeights;
+    private final int totalWeight;
+    private final byte[] content;
+    private final AtomicInteger connectedSessions = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+    private String host;
+    private int port;
+
+    public LoadTest(Scenario scenario) {
+        this.scenario = scenario;
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats(operation));
+        }
+
+        Map<Operation, Integer> mix = scenario.getMix();
+        mixOperations = new Operation[mix.size()];
+        mixWeights = new int[mix.size()];
+        int i = 0;
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            total += entry.getValue();
+            mixOperations[i] = entry.getKey();
+            mixWeights[i] = total;
+            i++;
+        }
+        totalWeight = total;
+
+        content = new byte[scenario.getFileSize()];
+        new Random(content.length).nextBytes(content);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: LoadTest <scenario.properties>");
+            System.exit(2);
+        }
+        new LoadTest(Scenario.load(Paths.get(args[0]))).run();
+    }
+
+    /**
+     * Run the scenario and print the report.
+     *
+     * @throws java.io.IOException  If the local server can't be started or the report can't be written.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        LocalFTPServer server = null;
+        if (scenario.isLocal()) {
+            server = new LocalFTPServer();
+            server.putFile(scenario.getRetrieveFile(), content);
+            for (int i = 0; i < scenario.getListEntries(); i++) {
+                server.putFile(String.format(Locale.ROOT, LOCAL_ENTRY, i), new byte[0]);
+            }
+            host = server.getHost();
+            port = server.getPort();
+        } else {
+            host = scenario.getHost();
+            port = scenario.getPort();
+        }
+
+        try {
+            System.out.printf(Locale.ROOT, "Target %s:%d, %d sessions, ramp-up %d s, measured %d s, mix %s%n",
+                    host, port, scenario.getSessions(), scenario.getRampUpMillis() / 1000,
+                    scenario.getDurationMillis() / 1000, scenario.getMix());
+
+            List<Thread> sessions = new ArrayList<Thread>(scenario.getSessions());
+            for (int i = 0; i < scenario.getSessions(); i++) {
+                long delay = scenario.getRampUpMillis() * i / scenario.getSessions();
+                Thread thread = new Thread(new Session(i, delay), SESSION_THREAD_NAME + i);
+                thread.setDaemon(true);
+                sessions.add(thread);
+                thread.start();
+            }
+            Thread.sleep(scenario.getRampUpMillis());
+
+            ResourceUsage before = ResourceUsage.sample();
+            long started = System.nanoTime();
+            measuring = true;
+            System.out.printf(Locale.ROOT, "Measuring with %d of %d sessions connected%n", connectedSessions.get(),
+                    scenario.getSessions());
+            long deadline = started + TimeUnit.MILLISECONDS.toNanos(scenario.getDurationMillis());
+            long now;
+            while ((now = System.nanoTime()) < deadline) {
+                Thread.sleep(Math.min(PROGRESS_INTERVAL, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1));
+                printProgress(System.nanoTime() - started);
+            }
+            measuring = false;
+            long elapsed = System.nanoTime() - started;
+            ResourceUsage after = ResourceUsage.sample();
+            running = false;
+
+            for (Thread thread : sessions) {
+                thread.join();
+            }
+
+            printReport(elapsed, before, after);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private Operation nextOperation() {
+        int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < mixWeights.length; i++) {
+            if (draw < mixWeights[i]) {
+                return mixOperations[i];
+            }
+        }
+        return mixOperations[mixOperations.length - 1];
+    }
+
+    private void printProgress(long elapsed) {
+        long operations = 0;
+        long errors = 0;
+        for (OperationStats operationStats : stats.values()) {
+            if (operationStats.getOperation() != Operation.CONNECT) {
+                operations += operationStats.getLatency().getCount();
+                errors += operationStats.getErrors();
+            }
+        }
+        System.out.printf(Locale.ROOT, "%6.1f s: %d connected, %d operations (%.0f/s), %d errors%n",
+                elapsed / NANOS_PER_SECOND, connectedSessions.get(), operations,
+                operations * NANOS_PER_SECOND / elapsed, errors);
+    }
+
+    private void printReport(long elapsed, ResourceUsage before, ResourceUsage after) throws IOException {
+        double seconds = elapsed / NANOS_PER_SECOND;
+        List<String[]> rows = new ArrayList<String[]>();
+        Histogram total = new Histogram();
+        long totalErrors = 0;
+        long totalBytes = 0;
+        for (OperationStats operationStats : stats.values()) {
+            Histogram latency = operationStats.getLatency();
+            if (latency.getCount() == 0 && operationStats.getErrors() == 0) {
+                continue;
+            }
+            boolean connect = operationStats.getOperation() == Operation.CONNECT;
+            rows.add(row(operationStats.getOperation().name(), latency, operationStats.getErrors(),
+                    operationStats.getBytes(), connect ? -1 : seconds));
+            if (!connect) {
+                total.add(latency);
+                totalErrors += operationStats.getErrors();
+                totalBytes += operationStats.getBytes();
+            }
+        }
+        rows.add(row("TOTAL", total, totalErrors, totalBytes, seconds));
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, ROW_FORMAT, "Operation", "Count", "Errors", "Ops/s", "MB/s", "p50 ms",
+                "p99 ms", "p99.9 ms", "max ms");
+        for (String[] row : rows) {
+            System.out.printf(Locale.ROOT, ROW_FORMAT, (Object[]) row);
+        }
+
+        long collections = after.collections - before.collections;
+        long collectionTime = after.collectionTime - before.collectionTime;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "GC: %d collections, %d ms (%.2f%% of the time)%n", collections,
+                collectionTime, collectionTime * 100 / (seconds * 1000));
+        long allocated = after.allocated(before);
+        long operations = total.getCount() + totalErrors;
+        if (allocated >= 0) {
+            System.out.printf(Locale.ROOT, "Allocated by the client: %.1f MB, %.1f MB/s, %d bytes/operation%n",
+                    allocated / MEGABYTE, allocated / MEGABYTE / seconds,
+                    (operations > 0) ? allocated / operations : 0);
+        } else {
+            System.out.println("Allocated by the client: not supported by this JVM");
+        }
+
+        if (scenario.getReportFile() != null) {
+            PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(scenario.getReportFile()),
+                    StandardCharsets.UTF_8));
+            try {
+                out.println(CSV_HEADER);
+                for (String[] row : rows) {
+                    out.println(String.join(",", row));
+                }
+                out.println();
+                out.println("metric,value");
+                out.println("gc_collections," + collections);
+                out.println("gc_time_ms," + collectionTime);
+                if (allocated >= 0) {
+                    out.println("allocated_mb," + String.format(Locale.ROOT, "%.1f", allocated / MEGABYTE));
+                    out.println("allocated_bytes_per_op," + ((operations > 0) ? allocated / operations : 0));
+                }
+            } finally {
+                out.close();
+            }
+            System.out.println("Report written to " + scenario.getReportFile());
+        }
+    }
+
+    /**
+     * Format the row of the report.
+     *
+     * @param seconds measured time, or -1 if the throughput is not meaningful.
+     */
+    private static String[] row(String name, Histogram latency, long errors, long bytes, double seconds) {
+        return new String[]{
+                name,
+                Long.toString(latency.getCount()),
+                Long.toString(errors),
+                (seconds > 0) ? String.format(Locale.ROOT, "%.1f", latency.getCount() / seconds) : "-",
+                (seconds > 0) ? String.format(Locale.ROOT, "%.2f", bytes / MEGABYTE / seconds) : "-",
+                millis(latency.getValueAtPercentile(50)),
+                millis(latency.getValueAtPercentile(99)),
+                millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMax())
+        };
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * GC and allocation counters of the JVM at one moment.
+     */
+    private static final class ResourceUsage {
+        long collections;
+        long collectionTime;
+        final Map<Long, Long> allocatedByThread = new HashMap<Long, Long>();
+        boolean allocationSupported;
+
+        static ResourceUsage sample() {
+            ResourceUsage usage = new ResourceUsage();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                usage.collections += Math.max(0, collector.getCollectionCount());
+                usage.collectionTime += Math.max(0, collector.getCollectionTime());
+            }
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+                if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+                    usage.allocationSupported = true;
+                    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        // Threads of the in-process server are not the client.
+                        if (!thread.getName().startsWith(SERVER_THREAD_NAME)) {
+                            long bytes = allocation.getThreadAllocatedBytes(thread.getId());
+                            if (bytes >= 0) {
+                                usage.allocatedByThread.put(thread.getId(), bytes);
+                            }
+                        }
+                    }
+                }
+            }
+            return usage;
+        }
+
+        /**
+         * Get bytes allocated since the earlier sample by the threads alive now.
+         *
+         * @return allocated bytes, or -1 if not supported.
+         */
+        long allocated(ResourceUsage earlier) {
+            if (!allocationSupported || !earlier.allocationSupported) {
+                return -1;
+            }
+            long allocated = 0;
+            for (Map.Entry<Long, Long> entry : allocatedByThread.entrySet()) {
+                Long start = earlier.allocatedByThread.get(entry.getKey());
+                allocated += entry.getValue() - ((start != null) ? start : 0);
+            }
+            return allocated;
+        }
+    }
+
+    /**
+     * One client running the operations until the test ends.
+     */
+    private class Session implements Runnable {
+        private final int id;
+        private final long startDelay;
+        private final Deque<String> uploaded = new ArrayDeque<String>();
+        private FTPClient client;
+        private int sequence = 0;
+
+        Session(int id, long startDelay) {
+            this.id = id;
+            this.startDelay = startDelay;
+        }
+
+        @Override
+        public void run() {
+            if (!pause(startDelay)) {
+                return;
+            }
+            try {
+                while (running) {
+                    if (client == null && !connect()) {
+                        pause(RECONNECT_DELAY);
+                        continue;
+                    }
+                    Operation operation = nextOperation();
+                    if (operation == Operation.DELE && uploaded.isEmpty()) {
+                        operation = Operation.STOR;
+                    }
+                    execute(operation);
+                    if (scenario.getThinkTimeMillis() > 0 && !pause(scenario.getThinkTimeMillis())) {
+                        return;
+                    }
+                }
+            } finally {
+                cleanUp();
+            }
+        }
+
+        private boolean connect() {
+            OperationStats connectStats = stats.get(Operation.CONNECT);
+            long started = System.nanoTime();
+            FTPClient client = new FTPClient();
+            try {
+                client.connect(host, port);
+                client.login(scenario.getUser(), scenario.getPassword());
+                client.changeWorkingDirectory(scenario.getDirectory());
+                connectStats.recordSuccess(System.nanoTime() - started, 0);
+                this.client = client;
+                connectedSessions.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                connectStats.recordError();
+            } catch (FTPException e) {
+                connectStats.recordError();
+            }
+            disconnect(client);
+            return false;
+        }
+
+        private void execute(Operation operation) {
+            long started = System.nanoTime();
+            long bytes = 0;
+            try {
+                switch (operation) {
+                    case LIST:
+                        client.getFilesList();
+                        break;
+                    case RETR:
+                        bytes = client.getFile(scenario.getRetrieveFile(), OutputStream.nullOutputStream(), null);
+                        break;
+                    case STOR:
+                        String name = String.format(Locale.ROOT, UPLOADED_FILE, id, sequence++);
+                        client.sendFile(content, name, null);
+                        uploaded.addLast(name);
+                        bytes = content.length;
+                        break;
+                    case DELE:
+                        client.deleteFile(uploaded.pollFirst());
+                        break;
+                    default:
+                        throw new IllegalArgumentException(operation.name());
+                }
+                if (measuring) {
+                    stats.get(operation).recordSuccess(System.nanoTime() - started, bytes);
+                }
+            } catch (IOException e) {
+                if (measuring) {
+                    stats.get(operation).recordError();
+                }
+            } catch (FTPException e) {
+                if (measuring) {
+                    stats.get(operation).recordError();
+                }
+            }
+        }
+
+        /**
+         * Delete the files left by the session and disconnect.
+         */
+        private void cleanUp() {
+            if (client == null) {
+                return;
+            }
+            if (!uploaded.isEmpty()) {
+                try {
+                    client.deleteFiles(new ArrayList<String>(uploaded));
+                } catch (IOException ignored) {
+                } catch (FTPException ignored) {
+                }
+            }
+            disconnect(client);
+            connectedSessions.decrementAndGet();
+        }
+
+        private void disconnect(FTPClient client) {
+            try {
+                client.disconnect();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Sleep for the time.
+         *
+         * @return false if interrupted.
+         */
+        private boolean pause(long millis) {
+            try {
+                Thread.sleep(millis);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ftp.loadtest;
+
+/**
+ * Operation run by the load test sessions.
+ *
+ * @author Vojko Vladimir
+ */
+public enum Operation {
+    /**
+     * Connect and login. Not part of the mix, every session does it once (and again after failures).
+     */
+    CONNECT,
+    /**
+     * List the remote directory.
+     */
+    LIST,
+    /**
+     * Download the remote file.
+     */
+    RETR,
+    /**
+     * Upload the new file.
+     */
+    STOR,
+    /**
+     * Delete the oldest file uploaded by the session.
+     */
+    DELE
+}
@@ -0,0 +1,54 @@
+package ftp.loadtest;
+
+import ftp.metrics.Histogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, errors and transferred bytes of one operation, shared by all sessions.
+ *
+ * @author Vojko Vladimir
+ */
+public class OperationStats {
+
+    private final Operation operation;
+    private final Histogram latency = new Histogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    OperationStats(Operation operation) {
+        this.operation = operation;
+    }
+
+    void recordSuccess(long nanos, long transferred) {
+        latency.record(nanos);
+        if (transferred > 0) {
+            bytes.addAndGet(transferred);
+        }
+    }
+
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get latencies of the successful operations.
+     *
+     * @return histogram of latencies in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
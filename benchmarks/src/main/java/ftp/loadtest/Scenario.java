@@ -0,0 +1,227 @@
+package ftp.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Load test scenario read from the properties file:
+ * <pre>
+ * target = local                  # "local" starts the in-process server, "remote" uses host and port
+ * host = ftp.example.com
+ * port = 21
+ * user = anonymous
+ * password = guest
+ * directory = /loadtest           # remote directory of LIST, STOR and DELE
+ * retrieve.file = loadtest.dat    # file downloaded by RETR (created on the local server)
+ * sessions = 500
+ * ramp.up.seconds = 10            # sessions are started evenly during the ramp-up, which is not measured
+ * duration.seconds = 60           # measured time after the ramp-up
+ * think.time.millis = 0           # pause of the session between operations
+ * mix = LIST:10, RETR:50, STOR:30, DELE:10
+ * file.size = 1048576             # size of the uploaded files (and of the local retrieve.file)
+ * list.entries = 1000             # entries in the local directory listing
+ * report.file = results.csv       # optional CSV report for comparing runs
+ * </pre>
+ *
+ * @author Vojko Vladimir
+ */
+public class Scenario {
+
+    private static final String TARGET_LOCAL = "local";
+    private static final String TARGET_REMOTE = "remote";
+
+    private final boolean local;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final String directory;
+    private final String retrieveFile;
+    private final int sessions;
+    private final long rampUpMillis;
+    private final long durationMillis;
+    private final long thinkTimeMillis;
+    private final Map<Operation, Integer> mix;
+    private final int fileSize;
+    private final int listEntries;
+    private final String reportFile;
+
+    /**
+     * Create scenario from the properties.
+     *
+     * @param properties scenario properties.
+     * @throws IllegalArgumentException If the property is missing or invalid.
+     */
+    public Scenario(Properties properties) {
+        String target = properties.getProperty("target", TARGET_LOCAL);
+        if (!target.equals(TARGET_LOCAL) && !target.equals(TARGET_REMOTE)) {
+            throw new IllegalArgumentException("target must be \"" + TARGET_LOCAL + "\" or \"" + TARGET_REMOTE + "\"");
+        }
+        local = target.equals(TARGET_LOCAL);
+        host = local ? null : required(properties, "host");
+        port = local ? -1 : (int) number(properties, "port", 21);
+        user = properties.getProperty("user", "anonymous");
+        password = properties.getProperty("password", "guest");
+        directory = properties.getProperty("directory", "/");
+        retrieveFile = properties.getProperty("retrieve.file", "loadtest.dat");
+        sessions = (int) number(properties, "sessions", 10);
+        rampUpMillis = number(properties, "ramp.up.seconds", 0) * 1000;
+        durationMillis = number(properties, "duration.seconds", 30) * 1000;
+        thinkTimeMillis = number(properties, "think.time.millis", 0);
+        mix = parseMix(properties.getProperty("mix", "LIST:10, RETR:50, STOR:30, DELE:10"));
+        fileSize = (int) number(properties, "file.size", 1024 * 1024);
+        listEntries = (int) number(properties, "list.entries", 100);
+        reportFile = properties.getProperty("report.file");
+
+        if (sessions < 1 || durationMillis < 1) {
+            throw new IllegalArgumentException("sessions and duration.seconds must be positive");
+        }
+    }
+
+    /**
+     * Read scenario from the properties file.
+     *
+     * @param file properties file.
+     * @return scenario.
+     * @throws java.io.IOException If the file can't be read.
+     */
+    public static Scenario load(Path file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = Files.newInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new Scenario(properties);
+    }
+
+    private static String required(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(key + " is required");
+        }
+        return value.trim();
+    }
+
+    private static long number(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number < 0) {
+                throw new IllegalArgumentException(key + " must not be negative");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + value);
+        }
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        int total = 0;
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("mix entry must be OPERATION:weight: " + entry);
+            }
+            Operation operation = Operation.valueOf(parts[0].trim());
+            if (operation == Operation.CONNECT) {
+                throw new IllegalArgumentException("CONNECT can't be in the mix");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("mix weight must not be negative: " + entry);
+            }
+            mix.put(operation, weight);
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("mix is empty");
+        }
+        return mix;
+    }
+
+    /**
+     * Check whether the scenario runs against the in-process server.
+     *
+     * @return true for the local target.
+     */
+    public boolean isLocal() {
+        return local;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getRetrieveFile() {
+        return retrieveFile;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public long getRampUpMillis() {
+        return rampUpMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getThinkTimeMillis() {
+        return thinkTimeMillis;
+    }
+
+    /**
+     * Get weights of the operations.
+     *
+     * @return weight by operation.
+     */
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    public int getListEntries() {
+        return listEntries;
+    }
+
+    /**
+     * Get path of the CSV report.
+     *
+     * @return path, or null if the report is only printed.
+     */
+    public String getReportFile() {
+        return reportFile;
+    }
+}
@@ -0,0 +1,298 @@
+package ftp;
+
+import ftp.connection.OnBytesReadListener;
+import ftp.connection.OnBytesWriteListener;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of the {@link FTPClient}.
+ * Every method returns immediately with the future of the operation. Operations of one client are executed
+ * one after another in the order of the calls, so the client can be used from any amount of threads
+ * without external locking. Failed operations complete the future exceptionally with the exception
+ * thrown by the {@link FTPClient}.
+ * <p>
+ * By default the blocking I/O runs on virtual threads, if the runtime supports them,
+ * otherwise on the shared pool of daemon threads.
+ *
+ * @author Vojko Vladimir
+ */
+public class AsyncFTPClient {
+
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+    private final FTPClient client;
+    private final SerialExecutor executor;
+
+    /**
+     * Create asynchronous client.
+     */
+    public AsyncFTPClient() {
+        this(new FTPClient());
+    }
+
+    /**
+     * Create asynchronous facade of the client. The client must not be used directly afterwards.
+     *
+     * @param client client to execute operations.
+     */
+    public AsyncFTPClient(FTPClient client) {
+        this(client, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Create asynchronous facade of the client. The client must not be used directly afterwards.
+     *
+     * @param client   client to execute operations.
+     * @param executor executor to run the blocking operations.
+     */
+    public AsyncFTPClient(FTPClient client, Executor executor) {
+        this.client = client;
+        this.executor = new SerialExecutor(executor);
+    }
+
+    public CompletableFuture<Void> connect(final String host, final int port) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.connect(host, port);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> login(final String user, final String pass) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.login(user, pass);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> disconnect() {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.disconnect();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> noOperation() {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.noOperation();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<String> printWorkingDirectory() {
+        return submit(new Action<String>() {
+            @Override
+            public String run() throws Exception {
+                return client.printWorkingDirectory();
+            }
+        });
+    }
+
+    public CompletableFuture<Void> changeWorkingDirectory(final String pathName) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.changeWorkingDirectory(pathName);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> makeDirectory(final String pathName) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.makeDirectory(pathName);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> removeDirectory(final String pathName) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.removeDirectory(pathName);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> renameFromTo(final String fromPathName, final String toPathName) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.renameFromTo(fromPathName, toPathName);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> deleteFile(final String pathName) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.deleteFile(pathName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get list of files of the directory.
+     *
+     * @param pathName path of the directory, or null for the working directory.
+     * @return future with the list of files.
+     */
+    public CompletableFuture<List<RemoteFile>> getFilesList(final String pathName) {
+        return submit(new Action<List<RemoteFile>>() {
+            @Override
+            public List<RemoteFile> run() throws Exception {
+                return (pathName == null) ? client.getFilesList() : client.getFilesList(pathName);
+            }
+        });
+    }
+
+    /**
+     * Retrieve file from the server to the local file.
+     *
+     * @param pathName path of the file on the server.
+     * @param local    path of the local file.
+     * @param listener bytes read listener, called from the executing thread.
+     * @return future with amount of read bytes.
+     */
+    public CompletableFuture<Long> getFile(final String pathName, final Path local,
+                                          final OnBytesReadListener listener) {
+        return submit(new Action<Long>() {
+            @Override
+            public Long run() throws Exception {
+                return client.getFile(pathName, local, listener);
+            }
+        });
+    }
+
+    /**
+     * Store local file on the server.
+     *
+     * @param local    path of the local file.
+     * @param pathName path of the file on the server.
+     * @param listener bytes write listener, called from the executing thread.
+     * @return future completed when the file is stored.
+     */
+    public CompletableFuture<Void> sendFile(final Path local, final String pathName,
+                                            final OnBytesWriteListener listener) {
+        return submit(new Action<Void>() {
+            @Override
+            public Void run() throws Exception {
+                client.sendFile(local, pathName, listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queue the action after all previously submitted actions of this client.
+     * Action of the future cancelled before it started is skipped.
+     */
+    private <T> CompletableFuture<T> submit(final Action<T> action) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(action.run());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Create executor with one virtual thread per task if the runtime has virtual threads,
+     * otherwise cached pool of daemon threads.
+     */
+    private static Executor createDefaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AsyncFTPClient-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    private interface Action<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Run tasks one after another on the underlying executor.
+     */
+    private static final class SerialExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private final Executor executor;
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable task) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                executor.execute(active);
+            }
+        }
+    }
+}
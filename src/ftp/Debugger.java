@@ -1,24 +1,159 @@
 package ftp;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Tracer of one client. Connections report structured events, which are recorded into the {@link TraceBuffer}
+ * and written to the {@link DebugListener}, if any of them is set. Otherwise the events are dropped before
+ * anything is built, so the disabled tracing costs one volatile read per event.
+ *
  * @author Vojko Vladimir
  */
 public class Debugger {
 
+    private static final AtomicInteger SESSION_IDS = new AtomicInteger();
 
     public interface DebugListener {
         void writeMessage(String message);
     }
 
-    private DebugListener listener;
+    private final int sessionId = SESSION_IDS.incrementAndGet();
+    private volatile DebugListener listener;
+    private volatile TraceBuffer buffer;
+    private volatile boolean enabled = false;
+
+    public Debugger() {
+    }
+
+    /**
+     * Create debugger of the new session that writes to the same listener and buffer as the given one.
+     *
+     * @param debugger debugger to copy.
+     */
+    public Debugger(Debugger debugger) {
+        listener = debugger.listener;
+        buffer = debugger.buffer;
+        enabled = debugger.enabled;
+    }
 
     public void writeMassage(String tag, String message) {
+        DebugListener listener = this.listener;
         if (listener != null) {
             listener.writeMessage(tag + "." + message);
         }
     }
 
-    public void setListener(DebugListener listener) {
+    /**
+     * Check whether events are recorded anywhere, so callers can skip preparing them.
+     *
+     * @return true if the listener or the trace buffer is set.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void trace(TraceEvent.Type type) {
+        if (enabled) {
+            record(type, null, null, 0, -1, -1);
+        }
+    }
+
+    /**
+     * Trace the event with the number (e.g., size of the transfer).
+     */
+    public void trace(TraceEvent.Type type, long value) {
+        if (enabled) {
+            record(type, null, null, 0, -1, value);
+        }
+    }
+
+    /**
+     * Trace the transfer of the range.
+     */
+    public void trace(TraceEvent.Type type, long position, long size) {
+        if (enabled) {
+            record(type, null, null, 0, position, size);
+        }
+    }
+
+    public void trace(TraceEvent.Type type, String text) {
+        if (enabled) {
+            record(type, null, text, 0, -1, -1);
+        }
+    }
+
+    /**
+     * Trace the opened connection.
+     */
+    public void trace(TraceEvent.Type type, String host, int port) {
+        if (enabled) {
+            record(type, null, host, 0, -1, port);
+        }
+    }
+
+    /**
+     * Trace the sent command.
+     */
+    public void trace(TraceEvent.Type type, String command, String argument) {
+        if (enabled) {
+            record(type, command, argument, 0, -1, -1);
+        }
+    }
+
+    /**
+     * Trace the received reply.
+     */
+    public void trace(TraceEvent.Type type, int replyCode, String text) {
+        if (enabled) {
+            record(type, null, text, replyCode, -1, -1);
+        }
+    }
+
+    private void record(TraceEvent.Type type, String command, String text, int replyCode, long position,
+                        long value) {
+        TraceBuffer buffer = this.buffer;
+        if (buffer != null) {
+            buffer.add(type, sessionId, command, text, replyCode, position, value);
+        }
+        DebugListener listener = this.listener;
+        if (listener != null) {
+            listener.writeMessage(new TraceEvent(type, sessionId, -1, command, text, replyCode, position, value)
+                    .getMessage());
+        }
+    }
+
+    /**
+     * Get id of the session in the trace events.
+     *
+     * @return session id, unique within the JVM.
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public synchronized void setListener(DebugListener listener) {
         this.listener = listener;
+        enabled = listener != null || buffer != null;
+    }
+
+    public synchronized void setTraceBuffer(TraceBuffer buffer) {
+        this.buffer = buffer;
+        enabled = listener != null || buffer != null;
+    }
+
+    public TraceBuffer getTraceBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Get the events of this session kept in the trace buffer.
+     *
+     * @return events, oldest first, or empty list if there is no trace buffer.
+     */
+    public List<TraceEvent> getTrace() {
+        TraceBuffer buffer = this.buffer;
+        return (buffer != null) ? buffer.getEvents(sessionId) : Collections.<TraceEvent>emptyList();
     }
-}
\ No newline at end of file
+}
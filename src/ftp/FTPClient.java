@@ -2,9 +2,37 @@ package ftp;
 
 import ftp.connection.*;
 import ftp.exception.*;
+import ftp.metrics.MetricsListener;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
 
 /**
  * Client for FTP server.
@@ -21,20 +49,91 @@ public class FTPClient {
      * Default port of FTP server.
      */
     public static final int DEFAULT_PORT = 21;
+    /**
+     * Default maximum amount of pipelined commands sent but not replied yet.
+     */
+    public static final int DEFAULT_PIPELINE_WINDOW = 32;
+    /**
+     * Transfer type of the text files, converted by the server to CRLF line endings.
+     */
+    public static final String TYPE_ASCII = "A";
+    /**
+     * Transfer type of the files transferred as they are (image).
+     */
+    public static final String TYPE_BINARY = "I";
+
+    private static final String BYTES_SUFFIX = " bytes)";
+    private static final String FILE_TOO_LARGE = "File is too large to be retrieved as array of bytes";
+    private static final String MALFORMED_REPLY = "Malformed reply: ";
+    private static final String FEATURE_MLST = "MLST";
+    private static final String FEATURE_UTF8 = "UTF8";
+    private static final String OPTION_UTF8_ON = "UTF8 ON";
+    private static final String FEATURE_HASH = "HASH";
+    private static final String OPTION_HASH = "HASH ";
+    private static final String FEATURE_MODE = "MODE";
+    private static final String MODE_STREAM = "S";
+    private static final String MODE_DEFLATE = "Z";
+    private static final String OPTION_MODE_LEVEL = "MODE Z LEVEL ";
 
     private ControlConnection control;
     private DataConnection data;
     private Debugger debugger;
+    private int pipelineWindow = DEFAULT_PIPELINE_WINDOW;
+    private ListingCache listingCache;
+    private String workingDirectory;
+    private Map<String, String> features;
+    private boolean machineListingEnabled = true;
+    private Boolean machineListingSupported;
+    private boolean charsetNegotiated = false;
+    private HashAlgorithm hashAlgorithm;
+    private String transferType = TYPE_BINARY;
+    private String serverType;
+    private boolean compressionEnabled = true;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Boolean compressionSupported;
+    private String serverMode = MODE_STREAM;
+    private int serverLevel = Deflater.DEFAULT_COMPRESSION;
+    private int connection;
+    private volatile long keepAliveInterval = 0;
+    private ScheduledFuture<?> keepAliveTask;
 
     /**
      * Create FTP Client.
      */
     public FTPClient() {
-        debugger = new Debugger();
+        this(new Debugger());
+    }
+
+    private FTPClient(Debugger debugger) {
+        this.debugger = debugger;
         control = new ControlConnection(debugger);
         data = new DataConnection(debugger);
     }
 
+    /**
+     * Create new client connected to the same server and logged in with the same user as this client.
+     * The new client writes to the debug listener and the trace buffer of this client, with its own session id.
+     *
+     * @return new logged in client.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    FTPClient newSession()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        FTPClient session = new FTPClient(new Debugger(debugger));
+        session.transferType = transferType;
+        session.compressionEnabled = compressionEnabled;
+        session.compressionLevel = compressionLevel;
+        session.setMetricsListener(control.getMetricsListener());
+        session.control.open(control);
+        session.setKeepAliveInterval(keepAliveInterval);
+        return session;
+    }
+
     /**
      * Establish control connection to the FTP server.
      *
@@ -55,7 +154,10 @@ public class FTPClient {
      * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
      */
     public void connect(String host, int port) throws IOException, ServiceUnavailableException {
+        resetConnectionState();
         control.open(host, port);
+        connection = control.getGeneration();
+        scheduleKeepAlive();
     }
 
     /**
@@ -75,11 +177,158 @@ public class FTPClient {
         control.login(user, pass);
     }
 
+    /**
+     * Log out from the server and close the control connection.
+     *
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void disconnect() throws IOException {
+        cancelKeepAlive();
+        data.close();
+        control.quit();
+    }
+
+    /**
+     * Open new control connection to the same server and login with the same user.
+     * Can be used to heal the session after the connection was broken.
+     *
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public void reconnect()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        data.close();
+        resetConnectionState();
+        control.restoreConnection();
+        connection = control.getGeneration();
+    }
+
+    /**
+     * Restore the lost connection before the command that depends on the state negotiated on the connection,
+     * and forget that state if the connection was restored since it was negotiated (e.g., by the previous
+     * command after the keepalive found the connection broken): the server starts over with its defaults.
+     */
+    private void checkConnection()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        control.restoreIfLost();
+        if (connection != control.getGeneration()) {
+            connection = control.getGeneration();
+            resetConnectionState();
+        }
+    }
+
+    private void resetConnectionState() {
+        workingDirectory = null;
+        features = null;
+        machineListingSupported = null;
+        charsetNegotiated = false;
+        hashAlgorithm = null;
+        compressionSupported = null;
+        resetTransferParameters();
+    }
 
     public boolean isConnected() {
         return control.isConnected();
     }
 
+    /**
+     * Send command that does nothing except that the server replies OK.
+     * Can be used to check that the connection is alive.
+     *
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public void noOperation()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        Reply reply = control.sendCommand(Command.NOOP);
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+        }
+    }
+
+    /**
+     * Keep the control connection alive by sending NOOP after the interval without any traffic on it.
+     * NOOP is sent from the background thread, also while the data transfer is in progress, so neither the server
+     * nor the firewalls drop the connection of the idle client or the long transfer. If NOOP on the idle
+     * connection is not answered within the interval, the connection is closed as broken and restored
+     * by the next command, which also negotiates again the state of the connection (TYPE, MODE, working
+     * directory). The keepalive stops when the client is disconnected.
+     *
+     * @param interval time in milliseconds, or 0 to disable the keepalive.
+     */
+    public synchronized void setKeepAliveInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException();
+        }
+        keepAliveInterval = interval;
+        cancelKeepAlive();
+        if (control.isConnected()) {
+            scheduleKeepAlive();
+        }
+    }
+
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * Set listener of the connection times, command latencies and transfer throughput (e.g.,
+     * {@link ftp.metrics.FTPMetrics}). The listener is called from the threads that use the client.
+     *
+     * @param metrics metrics listener, or null to stop measuring.
+     */
+    public void setMetricsListener(MetricsListener metrics) {
+        control.setMetricsListener(metrics);
+        data.setMetricsListener(metrics);
+    }
+
+    /**
+     * Get the round-trip time of the control connection, measured by the keepalive NOOPs on the idle connection.
+     *
+     * @return smoothed round-trip time in nanoseconds, or -1 if not measured yet.
+     */
+    public long getRoundTripTime() {
+        return control.getRoundTripTime();
+    }
+
+    /**
+     * Send the keepalive NOOP, if it is due. Called by {@link KeepAliveScheduler}.
+     */
+    void keepAlive() {
+        long interval = keepAliveInterval;
+        try {
+            control.keepAlive(interval, interval);
+        } catch (IOException ignored) {
+            // The reader of the replies marks the connection closed, the next command restores it
+            // and the client notices the new connection by its number.
+        }
+    }
+
+    private synchronized void scheduleKeepAlive() {
+        if (keepAliveInterval > 0 && keepAliveTask == null) {
+            keepAliveTask = KeepAliveScheduler.schedule(this, keepAliveInterval);
+        }
+    }
+
+    private synchronized void cancelKeepAlive() {
+        if (keepAliveTask != null) {
+            keepAliveTask.cancel(false);
+            keepAliveTask = null;
+        }
+    }
+
     /**
      * Get the name of the current working directory.
      *
@@ -93,6 +342,7 @@ public class FTPClient {
     public String printWorkingDirectory()
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             NeedAccountException {
+        checkConnection();
         Reply reply = control.sendCommand(Command.PRINT_WORKING_DIRECTORY);
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -102,7 +352,8 @@ public class FTPClient {
         }
         int startIndex = reply.text.indexOf('"') + 1;
         int stopIndex = reply.text.indexOf('"', startIndex);
-        return reply.text.substring(startIndex, stopIndex);
+        workingDirectory = reply.text.substring(startIndex, stopIndex);
+        return workingDirectory;
     }
 
     /**
@@ -120,7 +371,7 @@ public class FTPClient {
     public void changeWorkingDirectory(String pathName)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             ActionNotTakenException, NeedAccountException {
-        Reply reply = control.sendCommand(Command.CHANGE_WORKING_DIRECTORY + pathName);
+        Reply reply = control.sendCommand(Command.CHANGE_WORKING_DIRECTORY, pathName);
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
                 throw new ServiceUnavailableException(reply.text);
@@ -129,6 +380,7 @@ public class FTPClient {
             case ReplyCode.FILE_UNAVAILABLE:
                 throw new FileUnavailableException(reply.text);
         }
+        workingDirectory = null;
     }
 
     /**
@@ -153,6 +405,7 @@ public class FTPClient {
             case ReplyCode.FILE_UNAVAILABLE:
                 throw new FileUnavailableException(reply.text);
         }
+        workingDirectory = null;
     }
 
     /**
@@ -170,7 +423,7 @@ public class FTPClient {
     public void makeDirectory(String pathName)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             ActionNotTakenException, NeedAccountException {
-        Reply reply = control.sendCommand(Command.MAKE_DIRECTORY + pathName);
+        Reply reply = control.sendCommand(Command.MAKE_DIRECTORY, pathName);
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
                 throw new ServiceUnavailableException(reply.text);
@@ -179,6 +432,7 @@ public class FTPClient {
             case ReplyCode.FILE_UNAVAILABLE:
                 throw new FileUnavailableException(reply.text);
         }
+        invalidateListing(pathName);
     }
 
     /**
@@ -197,7 +451,7 @@ public class FTPClient {
     public void removeDirectory(String pathName)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             ActionNotTakenException, NeedAccountException {
-        Reply reply = control.sendCommand(Command.REMOVE_DIRECTORY + pathName);
+        Reply reply = control.sendCommand(Command.REMOVE_DIRECTORY, pathName);
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
                 throw new ServiceUnavailableException(reply.text);
@@ -206,6 +460,7 @@ public class FTPClient {
             case ReplyCode.FILE_UNAVAILABLE:
                 throw new FileUnavailableException(reply.text);
         }
+        invalidateListing(pathName);
     }
 
     /**
@@ -226,7 +481,7 @@ public class FTPClient {
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             ActionNotTakenException, FileActionNotTakenException, FileNameNotAllowedException,
             NeedAccountException {
-        Reply reply = control.sendCommand(Command.RENAME_FROM + fromPathName);
+        Reply reply = control.sendCommand(Command.RENAME_FROM, fromPathName);
 
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -239,7 +494,7 @@ public class FTPClient {
                 throw new FileActionNotTakenException(reply.text);
         }
 
-        reply = control.sendCommand(Command.RENAME_TO + toPathName);
+        reply = control.sendCommand(Command.RENAME_TO, toPathName);
 
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -251,21 +506,32 @@ public class FTPClient {
             case ReplyCode.NEED_ACCOUNT_FOR_STORING_FILES:
                 throw new NeedAccountException(reply.text);
         }
+        invalidateListing(fromPathName);
+        invalidateListing(toPathName);
     }
 
     /**
-     * Open data connection in the passive mode.
+     * Open data connection in the passive mode, after the transfer type and mode are set.
      *
+     * @param compressible false if the transfer must use the stream mode (e.g., it is restarted).
      * @throws java.io.IOException                       If an I/O error occurs.
      * @throws ftp.exception.NoConnectionException       If there is no connection.
      * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
      * @throws ftp.exception.NotLoggedInException        If user not logged in.
      * @throws ftp.exception.NeedAccountException        If user need account for action.
      */
-    private void openPassiveDTP()
+    private void openPassiveDTP(boolean compressible)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             NeedAccountException {
+        setTransferParameters(compressible);
+        long requestedAt = System.nanoTime();
         Reply reply = control.sendCommand(Command.PASSIVE);
+        if (connection != control.getGeneration()) {
+            // The connection was restored after TYPE and MODE were sent, the new one needs them again.
+            setTransferParameters(compressible);
+            requestedAt = System.nanoTime();
+            reply = control.sendCommand(Command.PASSIVE);
+        }
 
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -282,7 +548,7 @@ public class FTPClient {
         String host = address[0] + "." + address[1] + "." + address[2] + "." + address[3];
         int port = Integer.parseInt(address[4]) * 256 + Integer.parseInt(address[5]);
 
-        data.open(host, port);
+        data.open(host, port, requestedAt);
     }
 
     /**
@@ -308,6 +574,8 @@ public class FTPClient {
 
     /**
      * Get list of files in the specified directory (pathName).
+     * If the server supports MLSD (advertised by FEAT) and the machine listing is enabled, the files
+     * are listed by MLSD with exact sizes and modification times, otherwise by LIST.
      *
      * @param pathName directory path.
      * @return list of files.
@@ -325,54 +593,118 @@ public class FTPClient {
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             FileActionNotTakenException, CantOpenDataConnectionException, ConnectionClosedException,
             ActionAbortedException, NeedAccountException {
-        openPassiveDTP();
+        String directory = null;
+        if (listingCache != null) {
+            directory = absolutePath(pathName);
+            ArrayList<RemoteFile> cached = listingCache.get(directory);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-        String listCommand = (pathName == null) ? Command.LIST : Command.LIST + " " + pathName;
-        Reply reply = control.sendCommand(listCommand);
+        final ArrayList<RemoteFile> filesList = new ArrayList<RemoteFile>();
+        boolean machineListing = beginList(pathName);
+        data.readLines(new ListingParser(machineListing, control.getCharset(), new Consumer<RemoteFile>() {
+            @Override
+            public void accept(RemoteFile file) {
+                filesList.add(file);
+            }
+        }));
+        endList();
 
-        switch (reply.code) {
-            case ReplyCode.FILE_ACTION_NOT_TAKEN:
-                throw new FileActionNotTakenException(reply.text);
-            case ReplyCode.NOT_LOGGED_IN:
-                throw new NotLoggedInException(reply.text);
-            case ReplyCode.SERVICE_UNAVAILABLE:
-                throw new ServiceUnavailableException(reply.text);
-            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
-                throw new CantOpenDataConnectionException(reply.text);
-            case ReplyCode.CONNECTION_CLOSED:
-                throw new ConnectionClosedException(reply.text);
-            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
-                throw new LocalErrorInProcessingException(reply.text);
+        if (directory != null) {
+            listingCache.put(directory, filesList);
         }
+        return filesList;
+    }
 
-        ArrayList<RemoteFile> filesList = new ArrayList<RemoteFile>();
-
-        for (String fileProperty : data.readLines()) {
-            filesList.add(new RemoteFile(fileProperty));
+    /**
+     * Pass files of the specified directory to the consumer as soon as they are received, so the listing
+     * is never held in memory as a whole. The consumer runs on the calling thread while the data connection
+     * is open and must not use this client. Cached listing is used if it exists, but the listing received
+     * by this method is not cached.
+     *
+     * @param pathName directory path, or null for the current working directory.
+     * @param consumer consumer of files.
+     * @return amount of files.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public long listFiles(String pathName, Consumer<RemoteFile> consumer)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileActionNotTakenException, CantOpenDataConnectionException, ConnectionClosedException,
+            ActionAbortedException, NeedAccountException {
+        if (listingCache != null) {
+            ArrayList<RemoteFile> cached = listingCache.get(absolutePath(pathName));
+            if (cached != null) {
+                for (RemoteFile file : cached) {
+                    consumer.accept(file);
+                }
+                return cached.size();
+            }
         }
 
-        reply = control.readReply();
+        boolean machineListing = beginList(pathName);
+        ListingParser parser = new ListingParser(machineListing, control.getCharset(), consumer);
+        try {
+            data.readLines(parser);
+        } catch (RuntimeException e) {
+            abortList();
+            throw e;
+        }
+        endList();
+        return parser.count;
+    }
 
-        switch (reply.code) {
-            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
-                throw new CantOpenDataConnectionException(reply.text);
-            case ReplyCode.CONNECTION_CLOSED:
-                throw new ConnectionClosedException(reply.text);
-            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
-                throw new LocalErrorInProcessingException(reply.text);
+    /**
+     * Get files of the specified directory as the stream that parses them as they are received.
+     * The stream must be closed (e.g., by try-with-resources) before the client is used again:
+     * closing reads the completion reply of the listing, or aborts the listing if the stream
+     * is not consumed to the end. Errors while reading are thrown as {@link java.io.UncheckedIOException}.
+     * Cached listing is used if it exists, but the listing received by this method is not cached.
+     *
+     * @param pathName directory path, or null for the current working directory.
+     * @return stream of files.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public Stream<RemoteFile> streamFiles(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileActionNotTakenException, CantOpenDataConnectionException, ConnectionClosedException,
+            ActionAbortedException, NeedAccountException {
+        if (listingCache != null) {
+            ArrayList<RemoteFile> cached = listingCache.get(absolutePath(pathName));
+            if (cached != null) {
+                return cached.stream();
+            }
         }
 
-        return filesList;
+        boolean machineListing = beginList(pathName);
+        ListingIterator iterator = new ListingIterator(data.getLineReader(), machineListing);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator);
     }
 
     /**
-     * This command causes the server-DTP to transfer a copy of the file, specified in the pathname,
-     * to the user-DTP at the data connection.
+     * Open data connection and send the listing command. MLSD is used if the server supports it,
+     * otherwise LIST.
      *
-     * @param pathName path with name of file to retrieve.
-     *                 (only name if file is in the current directory).
-     * @param listener bytes read listener.
-     * @return file as array of bytes.
+     * @param pathName directory path, or null for the current working directory.
+     * @return true if the listing is sent by MLSD.
      * @throws java.io.IOException                           If an I/O error occurs.
      * @throws ftp.exception.NoConnectionException           If there is no connection.
      * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
@@ -381,20 +713,28 @@ public class FTPClient {
      * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
      * @throws ftp.exception.ConnectionClosedException       If connection closed.
      * @throws ftp.exception.ActionAbortedException          If action aborted.
-     * @throws ftp.exception.ActionNotTakenException         If action not taken.
      * @throws ftp.exception.NeedAccountException            If user need account for action.
      */
-    public byte[] getFile(String pathName, OnBytesReadListener listener)
+    private boolean beginList(String pathName)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
-            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
-            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
-        byte[] file;
-
-        openPassiveDTP();
+            FileActionNotTakenException, CantOpenDataConnectionException, ConnectionClosedException,
+            ActionAbortedException, NeedAccountException {
+        negotiateCharset();
+        boolean machineListing = useMachineListing();
+        openPassiveDTP(true);
+        Reply reply = control.sendCommand(listCommand(machineListing, pathName));
 
-        Reply reply = control.sendCommand(Command.RETRIEVE + pathName);
+        if (machineListing && isNotImplemented(reply.code)) {
+            data.close();
+            machineListingSupported = false;
+            machineListing = false;
+            openPassiveDTP(true);
+            reply = control.sendCommand(listCommand(false, pathName));
+        }
 
         switch (reply.code) {
+            case ReplyCode.FILE_ACTION_NOT_TAKEN:
+                throw new FileActionNotTakenException(reply.text);
             case ReplyCode.NOT_LOGGED_IN:
                 throw new NotLoggedInException(reply.text);
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -405,85 +745,1466 @@ public class FTPClient {
                 throw new ConnectionClosedException(reply.text);
             case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
                 throw new LocalErrorInProcessingException(reply.text);
-            case ReplyCode.FILE_ACTION_NOT_TAKEN:
-                throw new FileActionNotTakenException(reply.text);
-            case ReplyCode.FILE_UNAVAILABLE:
-                throw new FileUnavailableException(reply.text);
         }
+        return machineListing;
+    }
 
-        int startIndex = reply.text.lastIndexOf('(') + 1;
-        int stopIndex = reply.text.lastIndexOf(" bytes)");
-        int size = Integer.parseInt(reply.text.substring(startIndex, stopIndex));
-
-        file = data.getBytes(size, listener);
-
-        reply = control.readReply();
+    /**
+     * Read the reply that completes the listing.
+     *
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     */
+    private void endList()
+            throws IOException, CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException {
+        Reply reply = control.readReply();
 
         switch (reply.code) {
-            case ReplyCode.NOT_LOGGED_IN:
-                throw new NotLoggedInException(reply.text);
-            case ReplyCode.SERVICE_UNAVAILABLE:
-                throw new ServiceUnavailableException(reply.text);
             case ReplyCode.CANT_OPEN_DATA_CONNECTION:
                 throw new CantOpenDataConnectionException(reply.text);
             case ReplyCode.CONNECTION_CLOSED:
                 throw new ConnectionClosedException(reply.text);
             case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
                 throw new LocalErrorInProcessingException(reply.text);
-            case ReplyCode.FILE_ACTION_NOT_TAKEN:
-                throw new FileActionNotTakenException(reply.text);
-            case ReplyCode.FILE_UNAVAILABLE:
-                throw new FileUnavailableException(reply.text);
         }
+    }
+
+    /**
+     * Close the data connection of the unfinished listing and skip its completion reply.
+     */
+    private void abortList() {
+        try {
+            data.close();
+            control.readReply();
+        } catch (IOException ignored) {
+            // The next command will find the connection broken.
+        }
+    }
 
-        return file;
+    /**
+     * Walk the directory tree below the root by several sessions at the same time.
+     * Every directory is listed by one of the sessions, idle sessions take the subdirectories
+     * found by the busy ones. This client is one of the sessions, the others are opened when needed
+     * and closed at the end. Only directories are descended into, symbolic links are visited as files.
+     *
+     * @param root        path of the root directory (relative to the current working directory if not absolute).
+     * @param visitor     visitor of the files. Called from several threads at the same time.
+     * @param parallelism maximum amount of sessions to use.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public void walk(String root, RemoteFileVisitor visitor, int parallelism)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        walk(root, Integer.MAX_VALUE, null, visitor, parallelism);
     }
 
     /**
-     * This command causes the server-DTP to accept the data transferred via the data connection and to store
-     * the data as a file at the server site. If the file specified in the pathname exists at the server site,
-     * then its contents shall be replaced by the data being transferred. A new file is created
-     * at the server site if the file specified in the pathname does not already exist.
+     * Walk the directory tree below the root by several sessions at the same time.
+     * Files rejected by the filter are not visited, directories rejected by the filter are not visited
+     * nor walked. Failed listings are reported to the visitor and the walk continues.
      *
-     * @param file     file to send as array og bytes.
-     * @param pathName path with name of file to store.
-     *                 (only name if file is in the current directory).
-     * @param listener bytes write listener.
-     * @throws java.io.IOException                             If an I/O error occurs.
-     * @throws ftp.exception.NoConnectionException             If there is no connection.
-     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
-     * @throws ftp.exception.NotLoggedInException              If user not logged in.
-     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
-     * @throws ftp.exception.ConnectionClosedException         If connection closed.
-     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
-     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
-     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
-     *                                                         storage allocation.
-     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
-     * @throws ftp.exception.NeedAccountException              If user need account for action.
-     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
-     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     * @param root        path of the root directory (relative to the current working directory if not absolute).
+     * @param maxDepth    maximum depth of the visited files, 1 to visit only the entries of the root.
+     * @param filter      filter of the files, or null to visit all files.
+     * @param visitor     visitor of the files. Called from several threads at the same time.
+     * @param parallelism maximum amount of sessions to use.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
      */
-    public void sendFile(byte[] file, String pathName, OnBytesWriteListener listener)
+    public void walk(String root, int maxDepth, Predicate<RemoteFile> filter, RemoteFileVisitor visitor,
+                     int parallelism)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
-            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
-            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
-            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
-        openPassiveDTP();
+            NeedAccountException {
+        if (maxDepth < 0 || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (filter == null) {
+            filter = new Predicate<RemoteFile>() {
+                @Override
+                public boolean test(RemoteFile file) {
+                    return true;
+                }
+            };
+        }
+        String directory = absolutePath(root);
+        if (maxDepth > 0) {
+            new TreeWalk(this, maxDepth, filter, visitor, parallelism).run(directory);
+        }
+    }
 
-        Reply reply = control.sendCommand(Command.STORE + pathName);
+    /**
+     * Get the facts of one file (exact size, modification time, type and permissions) by MLST,
+     * without opening the data connection.
+     *
+     * @param pathName path with name of file, or null for the current working directory.
+     * @return file described by the server.
+     * @throws java.io.IOException                          If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException          If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException    If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException           If user not logged in.
+     * @throws ftp.exception.FileUnavailableException       If file unavailable (e.g., file not found, no access).
+     * @throws ftp.exception.NeedAccountException           If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException If server does not support MLST.
+     */
+    public RemoteFile getFileInfo(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileUnavailableException, NeedAccountException, CommandNotImplementedException {
+        String command = (pathName == null) ? Command.MACHINE_LIST : Command.MACHINE_LIST + " " + pathName;
+        Reply reply = control.sendCommand(command);
 
         switch (reply.code) {
-            case ReplyCode.NOT_LOGGED_IN:
-                throw new NotLoggedInException(reply.text);
             case ReplyCode.SERVICE_UNAVAILABLE:
                 throw new ServiceUnavailableException(reply.text);
-            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
-                throw new CantOpenDataConnectionException(reply.text);
-            case ReplyCode.CONNECTION_CLOSED:
-                throw new ConnectionClosedException(reply.text);
-            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
-                throw new LocalErrorInProcessingException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+            case ReplyCode.SYNTAX_ERROR:
+            case ReplyCode.SYNTAX_ERROR_IN_PARAMS_OR_ARGS:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED:
+                throw new CommandNotImplementedException(reply.text);
+        }
+
+        String[] lines = reply.text.split("\n");
+        if (lines.length < 2 || !lines[1].startsWith(" ")) {
+            throw new IOException(MALFORMED_REPLY + reply);
+        }
+        return RemoteFile.fromMachineListing(lines[1].substring(1));
+    }
+
+    /**
+     * Get features supported by the server (FEAT, RFC 2389).
+     * The features are requested only once for every connection.
+     *
+     * @return names of features in upper case mapped to their parameters (empty if none),
+     * or empty map if the server does not support FEAT.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public Map<String, String> getFeatures()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        checkConnection();
+        if (features != null) {
+            return features;
+        }
+        Reply reply = control.sendCommand(Command.FEATURES);
+
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+        }
+
+        Map<String, String> supported = new HashMap<String, String>();
+        if (reply.code == ReplyCode.SYSTEM_STATUS) {
+            String[] lines = reply.text.split("\n");
+            for (int i = 1; i < lines.length; i++) {
+                String feature = lines[i].trim();
+                int separator = feature.indexOf(' ');
+                if (separator > 0) {
+                    supported.put(feature.substring(0, separator).toUpperCase(Locale.ROOT),
+                            feature.substring(separator + 1));
+                } else if (!feature.isEmpty()) {
+                    supported.put(feature.toUpperCase(Locale.ROOT), "");
+                }
+            }
+        }
+        features = Collections.unmodifiableMap(supported);
+        return features;
+    }
+
+    /**
+     * Check whether the server supports the feature.
+     *
+     * @param feature name of the feature (e.g., "MLST", "SIZE", "UTF8").
+     * @return true if FEAT advertises the feature.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public boolean hasFeature(String feature)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        return getFeatures().containsKey(feature.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Enable or disable listing by MLSD when the server supports it. Enabled by default.
+     *
+     * @param machineListingEnabled false to always list by LIST.
+     */
+    public void setMachineListingEnabled(boolean machineListingEnabled) {
+        this.machineListingEnabled = machineListingEnabled;
+    }
+
+    /**
+     * Set the transfer type (TYPE), sent before the next transfer if the server uses another one.
+     * Binary by default, regardless of the default type of the server.
+     *
+     * @param transferType {@link #TYPE_BINARY} or {@link #TYPE_ASCII}.
+     */
+    public void setTransferType(String transferType) {
+        if (!TYPE_BINARY.equals(transferType) && !TYPE_ASCII.equals(transferType)) {
+            throw new IllegalArgumentException(transferType);
+        }
+        this.transferType = transferType;
+    }
+
+    public String getTransferType() {
+        return transferType;
+    }
+
+    /**
+     * Enable or disable compressed transfers (MODE Z) when FEAT advertises them. Enabled by default.
+     * Restarted transfers always use the stream mode.
+     *
+     * @param compressionEnabled false to always transfer in the stream mode.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Set the deflate level of compressed transfers, used for the sent data and requested from the server
+     * by OPTS MODE Z LEVEL.
+     *
+     * @param compressionLevel level from 0 (no compression) to 9 (best compression),
+     *                         or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if ((compressionLevel < 0 || compressionLevel > 9) && compressionLevel != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException();
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Check whether the next transfers are compressed.
+     *
+     * @return true if the server is in MODE Z.
+     */
+    public boolean isCompressionActive() {
+        return connection == control.getGeneration() && MODE_DEFLATE.equals(serverMode);
+    }
+
+    private void resetTransferParameters() {
+        serverType = null;
+        serverMode = MODE_STREAM;
+        serverLevel = Deflater.DEFAULT_COMPRESSION;
+        data.setCompression(false, compressionLevel);
+    }
+
+    /**
+     * Send TYPE and MODE, unless the server already uses the required type and mode.
+     * If the server rejects MODE Z, compression is not tried again on this connection.
+     */
+    private void setTransferParameters(boolean compressible)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        setTransferType();
+
+        String mode = (compressible && useCompression()) ? MODE_DEFLATE : MODE_STREAM;
+        if (mode.equals(MODE_DEFLATE) && compressionLevel != serverLevel) {
+            Reply reply = control.sendCommand(Command.OPTIONS + OPTION_MODE_LEVEL + compressionLevel);
+            checkTransferParameterReply(reply);
+            serverLevel = compressionLevel;
+        }
+        if (!mode.equals(serverMode)) {
+            Reply reply = control.sendCommand(Command.MODE, mode);
+            checkTransferParameterReply(reply);
+            if (reply.isPositiveCompletion()) {
+                serverMode = mode;
+            } else if (mode.equals(MODE_DEFLATE)) {
+                compressionSupported = false;
+            }
+        }
+        data.setCompression(MODE_DEFLATE.equals(serverMode), compressionLevel);
+    }
+
+    /**
+     * Send TYPE, unless the server already uses the required type.
+     */
+    private void setTransferType()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        checkConnection();
+        if (!transferType.equals(serverType)) {
+            Reply reply = control.sendCommand(Command.TYPE, transferType);
+            checkTransferParameterReply(reply);
+            serverType = reply.isPositiveCompletion() ? transferType : null;
+        }
+    }
+
+    private static void checkTransferParameterReply(Reply reply)
+            throws ServiceUnavailableException, NotLoggedInException {
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+        }
+    }
+
+    private boolean useCompression()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        if (!compressionEnabled) {
+            return false;
+        }
+        if (compressionSupported == null) {
+            String modes = getFeatures().get(FEATURE_MODE);
+            compressionSupported = modes != null && modes.toUpperCase(Locale.ROOT).contains(MODE_DEFLATE);
+        }
+        return compressionSupported;
+    }
+
+    /**
+     * Set charset of the path names in commands, replies and listings. UTF-8 by default.
+     * Takes effect on the next connection.
+     *
+     * @param charset charset of the path names.
+     */
+    public void setCharset(Charset charset) {
+        control.setCharset(charset);
+    }
+
+    public Charset getCharset() {
+        return control.getCharset();
+    }
+
+    /**
+     * Ask the server to use UTF-8 for the path names (OPTS UTF8 ON), if the client uses UTF-8
+     * and FEAT advertises it. Sent only once for every connection.
+     */
+    private void negotiateCharset()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        checkConnection();
+        if (charsetNegotiated) {
+            return;
+        }
+        charsetNegotiated = true;
+        if (StandardCharsets.UTF_8.equals(control.getCharset()) && hasFeature(FEATURE_UTF8)) {
+            control.sendCommand(Command.OPTIONS + OPTION_UTF8_ON);
+        }
+    }
+
+    private boolean useMachineListing()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        if (!machineListingEnabled) {
+            return false;
+        }
+        checkConnection();
+        if (machineListingSupported == null) {
+            machineListingSupported = hasFeature(FEATURE_MLST);
+        }
+        return machineListingSupported;
+    }
+
+    private static String listCommand(boolean machineListing, String pathName) {
+        String command = machineListing ? Command.MACHINE_LIST_DIRECTORY : Command.LIST;
+        return (pathName == null) ? command : command + " " + pathName;
+    }
+
+    private static boolean isNotImplemented(int replyCode) {
+        return replyCode == ReplyCode.SYNTAX_ERROR || replyCode == ReplyCode.COMMAND_NOT_IMPLEMENTED;
+    }
+
+    /**
+     * This command causes the server-DTP to transfer a copy of the file, specified in the pathname,
+     * to the user-DTP at the data connection.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param listener bytes read listener.
+     * @return file as array of bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public byte[] getFile(String pathName, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        byte[] file;
+
+        long size = beginRetrieve(pathName);
+
+        if (size < 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            data.copyTo(out, size, listener);
+            file = out.toByteArray();
+        } else if (size > Integer.MAX_VALUE) {
+            data.close();
+            throw new IOException(FILE_TOO_LARGE);
+        } else {
+            file = data.getBytes((int) size, listener);
+        }
+
+        endRetrieve();
+
+        return file;
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, and write its content to the output stream.
+     * The content is copied through the fixed-size buffer, so the file is never held in memory as a whole.
+     * The output stream is not closed.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param out      stream to write the file content.
+     * @param listener bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public long getFile(String pathName, OutputStream out, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        long size = beginRetrieve(pathName);
+        long totalRead = data.copyTo(out, size, listener);
+        endRetrieve();
+
+        return totalRead;
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, and write its content to the channel.
+     * The content is copied through the fixed-size buffer, so the file is never held in memory as a whole.
+     * The channel is not closed.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param out      channel to write the file content.
+     * @param listener bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public long getFile(String pathName, WritableByteChannel out, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        long size = beginRetrieve(pathName);
+        long totalRead = data.copyTo(out, size, listener);
+        endRetrieve();
+
+        return totalRead;
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, and save it to the local file.
+     * The local file is created or replaced if it already exists.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param local    path of the local file.
+     * @param listener bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public long getFile(String pathName, Path local, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        FileChannel out = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return getFile(pathName, out, listener);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, save it to the local file and verify it by the hash.
+     * The hash is computed while the bytes are received, so the local file is not read again,
+     * and compared with the hash computed by the server (HASH, or XCRC/XMD5/XSHA if HASH is not supported).
+     *
+     * @param pathName  path with name of file to retrieve.
+     *                  (only name if file is in the current directory).
+     * @param local     path of the local file.
+     * @param algorithm algorithm of the hash.
+     * @param listener  bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.FileUnavailableException        If file unavailable for hashing.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not compute hashes of the algorithm.
+     * @throws ftp.exception.HashMismatchException           If the retrieved file differs from the server file.
+     */
+    public long getFile(String pathName, Path local, HashAlgorithm algorithm, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException, FileUnavailableException,
+            CommandNotImplementedException, HashMismatchException {
+        Hasher hasher = algorithm.newHasher();
+        long totalRead;
+        data.setHasher(hasher);
+        try {
+            totalRead = getFile(pathName, local, listener);
+        } finally {
+            data.setHasher(null);
+        }
+        verifyHash(pathName, hasher);
+        return totalRead;
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, and save it to the local file.
+     * If the transfer fails because of the broken connection or transient server error, the client
+     * reconnects to the server and continues the transfer from the end of the partially saved file,
+     * as long as the retry policy allows.
+     *
+     * @param pathName    path with name of file to retrieve.
+     *                    (only name if file is in the current directory).
+     * @param local       path of the local file.
+     * @param retryPolicy policy of retrying the failed transfer.
+     * @param listener    bytes read listener.
+     * @return size of the retrieved file.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not support restart of transfer.
+     */
+    public long getFile(String pathName, Path local, RetryPolicy retryPolicy, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        int attempt = 1;
+        while (true) {
+            try {
+                if (attempt == 1) {
+                    getFile(pathName, local, listener);
+                } else {
+                    resumeFile(pathName, local, listener);
+                }
+                return Files.size(local);
+            } catch (IOException e) {
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            } catch (FTPException e) {
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            }
+            retryPolicy.await(attempt++);
+            reconnectQuietly();
+        }
+    }
+
+    /**
+     * Continue retrieving of the file, specified in the pathname, from the end of the partially saved local file.
+     * If the local file does not exist, the whole file is retrieved.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param local    path of the partially saved local file.
+     * @param listener bytes read listener. Called with amounts of the whole file.
+     * @return amount of bytes retrieved by this call.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not support restart of transfer.
+     */
+    public long resumeFile(String pathName, Path local, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        long remoteSize = getFileSize(pathName);
+        FileChannel file = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            long offset = file.size();
+            if (remoteSize >= 0 && offset > remoteSize) {
+                offset = 0;
+            }
+            file.truncate(offset);
+            if (offset == remoteSize) {
+                return 0;
+            }
+
+            long replySize = (offset == 0) ? beginRetrieve(pathName) : beginRetrieve(pathName, offset);
+            // After REST some servers report the size of the whole file in the 150 reply, others the rest of it,
+            // so without SIZE the restarted transfer is read until the end of the data stream.
+            long size = (remoteSize >= 0) ? remoteSize - offset : ((offset == 0) ? replySize : -1);
+
+            file.position(offset);
+            long totalRead = data.copyTo(file, size, new OffsetListener(listener, offset, remoteSize));
+            endRetrieve();
+
+            return totalRead;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, and save it to the local file through the memory mapping.
+     * The size of the file is requested from the server before retrieving, the local file is preallocated
+     * to this size and the data connection is read directly into the mapped file, without copying
+     * to the Java heap. If the server does not report the size of the file, the file is saved like
+     * {@link #getFile(String, java.nio.file.Path, ftp.connection.OnBytesReadListener)} does.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param local    path of the local file.
+     * @param listener bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    public long getFileMapped(String pathName, Path local, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        long size = getFileSize(pathName);
+
+        FileChannel file = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long replySize = beginRetrieve(pathName);
+            if (size < 0) {
+                size = replySize;
+            }
+
+            long totalRead = (size < 0 || data.isCompressed())
+                    ? data.copyTo(file, size, listener) : data.readToMapped(file, size, listener);
+            endRetrieve();
+
+            return totalRead;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Retrieve the file, specified in the pathname, in several segments at the same time and save it to the local file.
+     * Every segment is retrieved by its own session to the same server, which restarts the transfer
+     * from the segment offset and writes the received bytes to its own region of the local file.
+     * Small files and files of unknown size are retrieved by the single session like
+     * {@link #getFile(String, java.nio.file.Path, ftp.connection.OnBytesReadListener)} does.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param local    path of the local file.
+     * @param segments maximum amount of segments (and sessions) to use.
+     * @param listener bytes read listener. Might be called from different threads, but not at the same time.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not support restart of transfer.
+     */
+    public long getFileSegmented(String pathName, Path local, int segments, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        // The segment sessions start in the home directory, not in the working directory of this client.
+        String path = absolutePath(pathName);
+        long size = getFileSize(path);
+        int count = SegmentedDownload.segmentsCount(size, segments);
+
+        if (count <= 1) {
+            return getFile(path, local, listener);
+        }
+
+        return new SegmentedDownload(this, path, local, size, count, listener).run();
+    }
+
+    /**
+     * Retrieve the range of the file, specified in the pathname, and write it to the local file
+     * at the same position. The transfer is restarted from the offset and the data connection is closed
+     * as soon as the requested amount of bytes is received.
+     *
+     * @param pathName path with name of file to retrieve.
+     *                 (only name if file is in the current directory).
+     * @param file     local file to write the range.
+     * @param offset   offset of the range in the file.
+     * @param size     size of the range.
+     * @param listener bytes read listener.
+     * @return amount of retrieved bytes.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not support restart of transfer.
+     */
+    long getFileRange(String pathName, FileChannel file, long offset, long size, OnBytesReadListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        beginRetrieve(pathName, offset);
+        long totalRead = data.readToFile(file, offset, size, listener);
+
+        // The server replies either that transfer is complete or that it is aborted, when the range
+        // ends before the end of the file. The amount of received bytes is already checked.
+        control.readReply();
+
+        return totalRead;
+    }
+
+    /**
+     * Set the byte offset in the file at which the following file transfer will be restarted.
+     *
+     * @param offset offset in the file.
+     * @throws java.io.IOException                          If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException          If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException    If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException           If user not logged in.
+     * @throws ftp.exception.NeedAccountException           If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException If server does not support restart of transfer.
+     */
+    private void restart(long offset)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException, CommandNotImplementedException {
+        Reply reply = control.sendCommand(Command.RESTART + offset);
+
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.SYNTAX_ERROR:
+            case ReplyCode.SYNTAX_ERROR_IN_PARAMS_OR_ARGS:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED:
+                throw new CommandNotImplementedException(reply.text);
+        }
+    }
+
+    /**
+     * Get the size of the file, specified in the pathname.
+     * The size depends on the representation type (RFC 3659), so the transfer type is set first,
+     * and the size matches the amount of bytes transferred.
+     *
+     * @param pathName path with name of file.
+     *                 (only name if file is in the current directory).
+     * @return size of the file, or -1 if the server does not support the size command.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.FileUnavailableException    If file unavailable (e.g., file not found, no access).
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public long getFileSize(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileUnavailableException, NeedAccountException {
+        setTransferType();
+        Reply reply = control.sendCommand(Command.SIZE, pathName);
+
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+            case ReplyCode.FILE_STATUS:
+                try {
+                    return Long.parseLong(reply.text.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException(MALFORMED_REPLY + reply);
+                }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the time of the last modification of the file, specified in the pathname, by MDTM (RFC 3659).
+     *
+     * @param pathName path with name of file.
+     *                 (only name if file is in the current directory).
+     * @return modification time, or null if the server does not support the modification time command.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.FileUnavailableException    If file unavailable (e.g., file not found, no access).
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public Instant getModificationTime(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileUnavailableException, NeedAccountException {
+        Reply reply = control.sendCommand(Command.MODIFICATION_TIME, pathName);
+
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+            case ReplyCode.FILE_STATUS:
+                return RemoteFile.parseTimeValue(reply.text.trim());
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the hash of the file, specified in the pathname, computed by the server.
+     * Uses HASH if FEAT advertises the algorithm for it, otherwise XCRC, XMD5, XSHA1, XSHA256 or XSHA512.
+     *
+     * @param pathName  path with name of file.
+     *                  (only name if file is in the current directory).
+     * @param algorithm algorithm of the hash.
+     * @return hash as hex digits.
+     * @throws java.io.IOException                          If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException          If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException    If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException           If user not logged in.
+     * @throws ftp.exception.FileUnavailableException       If file unavailable (e.g., file not found, no access).
+     * @throws ftp.exception.NeedAccountException           If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException If server does not compute hashes of the algorithm.
+     */
+    public String getRemoteHash(String pathName, HashAlgorithm algorithm)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileUnavailableException, NeedAccountException, CommandNotImplementedException {
+        String command;
+        int valueIndex;
+        if (selectHashAlgorithm(algorithm)) {
+            command = Command.HASH + pathName;
+            valueIndex = 2;
+        } else if (algorithm.getCommand() != null) {
+            command = algorithm.getCommand() + " " + pathName;
+            valueIndex = 0;
+        } else {
+            throw new CommandNotImplementedException(algorithm.getName());
+        }
+        Reply reply = control.sendCommand(command);
+
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+            case ReplyCode.SYNTAX_ERROR:
+            case ReplyCode.SYNTAX_ERROR_IN_PARAMS_OR_ARGS:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED_FOR_PARAM:
+                throw new CommandNotImplementedException(reply.text);
+        }
+
+        String[] values = reply.text.trim().split("\\s+");
+        if (!reply.isPositiveCompletion() || values.length <= valueIndex) {
+            throw new IOException(MALFORMED_REPLY + reply);
+        }
+        return values[valueIndex];
+    }
+
+    /**
+     * Select the algorithm of HASH by OPTS HASH, unless the server already uses it.
+     *
+     * @return false if FEAT does not advertise the algorithm for HASH.
+     */
+    private boolean selectHashAlgorithm(HashAlgorithm algorithm)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        checkConnection();
+        if (algorithm == hashAlgorithm) {
+            return true;
+        }
+        String algorithms = getFeatures().get(FEATURE_HASH);
+        if (algorithms == null) {
+            return false;
+        }
+
+        for (String name : algorithms.split(";")) {
+            boolean selected = name.endsWith("*");
+            if (selected) {
+                name = name.substring(0, name.length() - 1);
+            }
+            if (name.trim().equalsIgnoreCase(algorithm.getName())) {
+                if (!selected || hashAlgorithm != null) {
+                    Reply reply = control.sendCommand(Command.OPTIONS + OPTION_HASH + algorithm.getName());
+                    if (!reply.isPositiveCompletion()) {
+                        return false;
+                    }
+                }
+                hashAlgorithm = algorithm;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compare the hash of the transferred bytes with the hash of the remote file.
+     */
+    private void verifyHash(String pathName, Hasher hasher)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            FileUnavailableException, NeedAccountException, CommandNotImplementedException, HashMismatchException {
+        String actual = hasher.getValue();
+        String expected = getRemoteHash(pathName, hasher.getAlgorithm());
+        if (!Hasher.matches(hasher.getAlgorithm(), expected, actual)) {
+            throw new HashMismatchException(hasher.getAlgorithm().getName(), expected, actual);
+        }
+    }
+
+    /**
+     * Open data connection and send retrieve command for the file transfer.
+     *
+     * @param pathName path with name of file to retrieve.
+     * @return size of the file from the server reply, or -1 if the server did not report it.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    private long beginRetrieve(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        openPassiveDTP(true);
+        return sendRetrieve(pathName);
+    }
+
+    /**
+     * Open data connection and send retrieve command for the file transfer restarted from the offset.
+     *
+     * @param pathName path with name of file to retrieve.
+     * @param offset   offset in the file to restart the transfer from.
+     * @return size of the rest of the file from the server reply, or -1 if the server did not report it.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     * @throws ftp.exception.CommandNotImplementedException  If server does not support restart of transfer.
+     */
+    private long beginRetrieve(String pathName, long offset)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        openPassiveDTP(false);
+        restart(offset);
+        return sendRetrieve(pathName);
+    }
+
+    /**
+     * Send retrieve command.
+     *
+     * @param pathName path with name of file to retrieve.
+     * @return size of the file from the server reply, or -1 if the server did not report it.
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    private long sendRetrieve(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        Reply reply = control.sendCommand(Command.RETRIEVE, pathName);
+
+        switch (reply.code) {
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
+                throw new CantOpenDataConnectionException(reply.text);
+            case ReplyCode.CONNECTION_CLOSED:
+                throw new ConnectionClosedException(reply.text);
+            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
+                throw new LocalErrorInProcessingException(reply.text);
+            case ReplyCode.FILE_ACTION_NOT_TAKEN:
+                throw new FileActionNotTakenException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+        }
+
+        return parseTransferSize(reply.text);
+    }
+
+    /**
+     * Read the reply that completes the file retrieving.
+     *
+     * @throws java.io.IOException                           If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException           If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException     If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException            If user not logged in.
+     * @throws ftp.exception.FileActionNotTakenException     If file unavailable (e.g., file busy).
+     * @throws ftp.exception.CantOpenDataConnectionException If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException       If connection closed.
+     * @throws ftp.exception.ActionAbortedException          If action aborted.
+     * @throws ftp.exception.ActionNotTakenException         If action not taken.
+     * @throws ftp.exception.NeedAccountException            If user need account for action.
+     */
+    private void endRetrieve()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException {
+        Reply reply = control.readReply();
+
+        switch (reply.code) {
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
+                throw new CantOpenDataConnectionException(reply.text);
+            case ReplyCode.CONNECTION_CLOSED:
+                throw new ConnectionClosedException(reply.text);
+            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
+                throw new LocalErrorInProcessingException(reply.text);
+            case ReplyCode.FILE_ACTION_NOT_TAKEN:
+                throw new FileActionNotTakenException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                throw new FileUnavailableException(reply.text);
+        }
+    }
+
+    /**
+     * Try to reconnect to the server before the next attempt of the failed transfer.
+     * If the reconnection fails, the next attempt fails too and is handled by the retry policy.
+     */
+    private void reconnectQuietly() {
+        try {
+            reconnect();
+        } catch (IOException ignored) {
+        } catch (FTPException ignored) {
+        }
+    }
+
+    /**
+     * Get the size of the transferred file from the text of the reply like "Opening data connection (N bytes)".
+     *
+     * @param replyText text of the reply.
+     * @return size of the file, or -1 if the reply does not contain it.
+     */
+    private static long parseTransferSize(String replyText) {
+        int stopIndex = replyText.lastIndexOf(BYTES_SUFFIX);
+        if (stopIndex < 0) {
+            return -1;
+        }
+        int startIndex = replyText.lastIndexOf('(', stopIndex) + 1;
+        try {
+            return Long.parseLong(replyText.substring(startIndex, stopIndex).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * This command causes the server-DTP to accept the data transferred via the data connection and to store
+     * the data as a file at the server site. If the file specified in the pathname exists at the server site,
+     * then its contents shall be replaced by the data being transferred. A new file is created
+     * at the server site if the file specified in the pathname does not already exist.
+     *
+     * @param file     file to send as array og bytes.
+     * @param pathName path with name of file to store.
+     *                 (only name if file is in the current directory).
+     * @param listener bytes write listener.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    public void sendFile(byte[] file, String pathName, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        beginStore(Command.STORE, pathName);
+        data.writeBytes(file, listener);
+        endStore(pathName);
+    }
+
+    /**
+     * Store the local file at the server site.
+     * The file is sent by the operating system directly from the file to the data connection,
+     * so its content is not copied to the Java heap.
+     *
+     * @param local    path of the local file to send.
+     * @param pathName path with name of file to store.
+     *                 (only name if file is in the current directory).
+     * @param listener bytes write listener.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    public void sendFile(Path local, String pathName, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        FileChannel file = FileChannel.open(local, StandardOpenOption.READ);
+        try {
+            beginStore(Command.STORE, pathName);
+            data.transferFrom(file, 0, file.size(), listener);
+            endStore(pathName);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Store the local file at the server site and verify it by the hash.
+     * The hash is computed while the bytes are sent, so the local file is read only once,
+     * and compared with the hash computed by the server (HASH, or XCRC/XMD5/XSHA if HASH is not supported).
+     *
+     * @param local     path of the local file to send.
+     * @param pathName  path with name of file to store.
+     *                  (only name if file is in the current directory).
+     * @param algorithm algorithm of the hash.
+     * @param listener  bytes write listener.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     * @throws ftp.exception.FileUnavailableException          If file unavailable for hashing.
+     * @throws ftp.exception.CommandNotImplementedException    If server does not compute hashes of the algorithm.
+     * @throws ftp.exception.HashMismatchException             If the stored file differs from the local file.
+     */
+    public void sendFile(Path local, String pathName, HashAlgorithm algorithm, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException,
+            FileUnavailableException, CommandNotImplementedException, HashMismatchException {
+        Hasher hasher = algorithm.newHasher();
+        data.setHasher(hasher);
+        try {
+            sendFile(local, pathName, listener);
+        } finally {
+            data.setHasher(null);
+        }
+        verifyHash(pathName, hasher);
+    }
+
+    /**
+     * Store the content of the input stream as a file at the server site.
+     * The content is copied through the fixed-size buffer, so it is never held in memory as a whole.
+     * The input stream is not closed.
+     *
+     * @param in       stream to read the file content.
+     * @param pathName path with name of file to store.
+     *                 (only name if file is in the current directory).
+     * @param listener bytes write listener.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    public void sendFile(InputStream in, String pathName, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        beginStore(Command.STORE, pathName);
+        data.copyFrom(in, -1, listener);
+        endStore(pathName);
+    }
+
+    /**
+     * Store the local file at the server site.
+     * If the transfer fails because of the broken connection or transient server error, the client
+     * reconnects to the server and appends the rest of the file to the partially stored remote file,
+     * as long as the retry policy allows.
+     *
+     * @param local       path of the local file to send.
+     * @param pathName    path with name of file to store.
+     *                    (only name if file is in the current directory).
+     * @param retryPolicy policy of retrying the failed transfer.
+     * @param listener    bytes write listener.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    public void sendFile(Path local, String pathName, RetryPolicy retryPolicy, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        int attempt = 1;
+        while (true) {
+            try {
+                if (attempt == 1) {
+                    sendFile(local, pathName, listener);
+                } else {
+                    resumeSendFile(local, pathName, listener);
+                }
+                return;
+            } catch (IOException e) {
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            } catch (FTPException e) {
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            }
+            retryPolicy.await(attempt++);
+            reconnectQuietly();
+        }
+    }
+
+    /**
+     * Continue storing of the local file by appending the rest of it to the partially stored remote file.
+     * If the remote file does not exist, or the server does not report its size, the whole file is stored.
+     *
+     * @param local    path of the local file to send.
+     * @param pathName path with name of file to store.
+     *                 (only name if file is in the current directory).
+     * @param listener bytes write listener. Called with amounts of the whole file.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    public void resumeSendFile(Path local, String pathName, OnBytesWriteListener listener)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        long remoteSize;
+        try {
+            remoteSize = getFileSize(pathName);
+        } catch (FileUnavailableException e) {
+            remoteSize = 0;
+        }
+
+        FileChannel file = FileChannel.open(local, StandardOpenOption.READ);
+        try {
+            long size = file.size();
+            if (remoteSize < 0 || remoteSize > size) {
+                remoteSize = 0;
+            }
+            if (remoteSize == size && size > 0) {
+                return;
+            }
+
+            beginStore((remoteSize == 0) ? Command.STORE : Command.APPEND, pathName);
+            data.transferFrom(file, remoteSize, size - remoteSize, new OffsetListener(listener, remoteSize, size));
+            endStore(pathName);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Send store command and open data connection for the file transfer.
+     *
+     * @param storeCommand store or append command.
+     * @param pathName     path with name of file to store.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    private void beginStore(String storeCommand, String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        openPassiveDTP(true);
+
+        Reply reply = control.sendCommand(storeCommand, pathName);
+
+        switch (reply.code) {
+            case ReplyCode.NOT_LOGGED_IN:
+                throw new NotLoggedInException(reply.text);
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                throw new ServiceUnavailableException(reply.text);
+            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
+                throw new CantOpenDataConnectionException(reply.text);
+            case ReplyCode.CONNECTION_CLOSED:
+                throw new ConnectionClosedException(reply.text);
+            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
+                throw new LocalErrorInProcessingException(reply.text);
             case ReplyCode.UNKNOWN_PAGE_TYPE:
                 throw new PageTypeUnknownException(reply.text);
             case ReplyCode.FILE_ACTION_ABORTED:
@@ -497,10 +2218,35 @@ public class FTPClient {
             case ReplyCode.FILE_NAME_NOT_ALLOWED:
                 throw new FileNameNotAllowedException(reply.text);
         }
+        invalidateListing(pathName);
+    }
 
-        data.writeBytes(file, listener);
-
-        reply = control.readReply();
+    /**
+     * Read the reply that completes the file storing.
+     *
+     * @param pathName path with name of stored file.
+     * @throws java.io.IOException                             If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException             If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException       If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException              If user not logged in.
+     * @throws ftp.exception.CantOpenDataConnectionException   If data connection can't be opened.
+     * @throws ftp.exception.ConnectionClosedException         If connection closed.
+     * @throws ftp.exception.LocalErrorInProcessingException   If there is local error in processing.
+     * @throws ftp.exception.PageTypeUnknownException          If page type unknown.
+     * @throws ftp.exception.FileActionAbortedException        If file action is aborted, because exceeded
+     *                                                         storage allocation.
+     * @throws ftp.exception.FileActionNotTakenException       If file is unavailable (e.g., file busy).
+     * @throws ftp.exception.NeedAccountException              If user need account for action.
+     * @throws ftp.exception.InsufficientStorageSpaceException If there is insufficient storage space in system.
+     * @throws ftp.exception.FileNameNotAllowedException       If filename is not allowed.
+     */
+    private void endStore(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, LocalErrorInProcessingException,
+            PageTypeUnknownException, FileActionAbortedException, FileActionNotTakenException,
+            NeedAccountException, InsufficientStorageSpaceException, FileNameNotAllowedException {
+        Reply reply = control.readReply();
+        invalidateListing(pathName);
 
         switch (reply.code) {
             case ReplyCode.NOT_LOGGED_IN:
@@ -526,7 +2272,6 @@ public class FTPClient {
             case ReplyCode.FILE_NAME_NOT_ALLOWED:
                 throw new FileNameNotAllowedException(reply.text);
         }
-
     }
 
     /**
@@ -545,7 +2290,7 @@ public class FTPClient {
     public void deleteFile(String pathName)
             throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
             FileActionNotTakenException, FileUnavailableException, NeedAccountException {
-        Reply reply = control.sendCommand(Command.DELETE + pathName);
+        Reply reply = control.sendCommand(Command.DELETE, pathName);
 
         switch (reply.code) {
             case ReplyCode.SERVICE_UNAVAILABLE:
@@ -557,10 +2302,330 @@ public class FTPClient {
             case ReplyCode.FILE_UNAVAILABLE:
                 throw new FileUnavailableException(reply.text);
         }
+        invalidateListing(pathName);
+    }
+
+    /**
+     * Send several commands that do not use data connection (e.g., DELE, MKD, RMD, SITE CHMOD)
+     * in the pipelined mode: commands are sent without waiting for the reply to the previous command,
+     * so the whole batch takes a few round trips instead of one round trip for every command.
+     *
+     * @param commands commands to send (e.g., {@code Command.DELETE + pathName}).
+     * @return server replies, in the same order as commands.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> sendCommands(List<String> commands)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        if (listingCache != null) {
+            listingCache.invalidateAll();
+        }
+        return control.sendCommands(commands, pipelineWindow);
+    }
+
+    /**
+     * Delete several files in the pipelined mode.
+     *
+     * @param pathNames paths with names of files to delete.
+     * @return server replies, in the same order as files. Check {@link Reply#isPositiveCompletion()}
+     * to find files that are not deleted.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> deleteFiles(List<String> pathNames)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        List<Reply> replies = control.sendCommands(Command.DELETE, pathNames, pipelineWindow);
+        for (String pathName : pathNames) {
+            invalidateListing(pathName);
+        }
+        return replies;
+    }
+
+    /**
+     * Make several directories in the pipelined mode.
+     * Parent directories must be listed before their subdirectories.
+     *
+     * @param pathNames paths with names of directories to make.
+     * @return server replies, in the same order as directories. Check {@link Reply#isPositiveCompletion()}
+     * to find directories that are not made.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> makeDirectories(List<String> pathNames)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        List<Reply> replies = control.sendCommands(Command.MAKE_DIRECTORY, pathNames, pipelineWindow);
+        for (String pathName : pathNames) {
+            invalidateListing(pathName);
+        }
+        return replies;
+    }
+
+    /**
+     * Remove several directories in the pipelined mode.
+     * Subdirectories must be listed before their parent directories.
+     *
+     * @param pathNames paths with names of directories to remove.
+     * @return server replies, in the same order as directories. Check {@link Reply#isPositiveCompletion()}
+     * to find directories that are not removed.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> removeDirectories(List<String> pathNames)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        List<Reply> replies = control.sendCommands(Command.REMOVE_DIRECTORY, pathNames, pipelineWindow);
+        for (String pathName : pathNames) {
+            invalidateListing(pathName);
+        }
+        return replies;
+    }
+
+    /**
+     * Set maximum amount of pipelined commands sent but not replied yet.
+     *
+     * @param pipelineWindow size of the pipeline window.
+     */
+    public void setPipelineWindow(int pipelineWindow) {
+        if (pipelineWindow < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.pipelineWindow = pipelineWindow;
+    }
+
+    /**
+     * Enable caching of directory listings by {@link #getFilesList(String)}.
+     * Cached listings are invalidated by the changes made through this client. The cache can be shared
+     * by several clients, but only of the same server and user.
+     *
+     * @param listingCache cache of listings, or null to disable caching.
+     */
+    public void setListingCache(ListingCache listingCache) {
+        this.listingCache = listingCache;
+    }
+
+    public ListingCache getListingCache() {
+        return listingCache;
+    }
+
+    /**
+     * Get absolute path of the file. The working directory is requested from the server only once
+     * after it is changed or the connection is restored.
+     */
+    private String absolutePath(String pathName)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        checkConnection();
+        if (workingDirectory == null && (pathName == null || !pathName.startsWith("/"))) {
+            printWorkingDirectory();
+        }
+        return ListingCache.resolve(workingDirectory, pathName);
+    }
+
+    /**
+     * Invalidate cached listings affected by the change of the file.
+     * If the working directory is not known, all listings are invalidated instead of requesting it.
+     */
+    private void invalidateListing(String pathName) {
+        if (listingCache == null) {
+            return;
+        }
+        if (pathName.startsWith("/")) {
+            listingCache.invalidate(pathName);
+        } else if (workingDirectory != null && connection == control.getGeneration()) {
+            listingCache.invalidate(ListingCache.resolve(workingDirectory, pathName));
+        } else {
+            listingCache.invalidateAll();
+        }
     }
 
     public void setDebugListener(Debugger.DebugListener listener) {
         debugger.setListener(listener);
     }
 
+    /**
+     * Record the trace events of this client (sent commands, received replies, opened connections, transfers
+     * and errors) into the buffer. The buffer can be shared by many clients, events are told apart by
+     * the session id. While neither the buffer nor the debug listener is set, nothing is recorded.
+     *
+     * @param buffer trace buffer, or null to stop tracing.
+     */
+    public void setTraceBuffer(TraceBuffer buffer) {
+        debugger.setTraceBuffer(buffer);
+    }
+
+    /**
+     * Get the latest trace events of this client, e.g., to dump them after the error.
+     *
+     * @return events kept in the trace buffer, oldest first, or empty list if tracing is not enabled.
+     */
+    public List<TraceEvent> getTrace() {
+        return debugger.getTrace();
+    }
+
+    /**
+     * Get id of this client in the trace events.
+     *
+     * @return session id, unique within the JVM.
+     */
+    public int getSessionId() {
+        return debugger.getSessionId();
+    }
+
+    /**
+     * Parse raw lines of LIST or MLSD into the list of files.
+     * Lines that are not file entries, and entries of the listed directory and its parent are skipped.
+     */
+    private static class ListingParser implements OnLineReadListener {
+
+        private final boolean machineListing;
+        private final Charset charset;
+        private final Consumer<RemoteFile> consumer;
+        long count = 0;
+
+        ListingParser(boolean machineListing, Charset charset, Consumer<RemoteFile> consumer) {
+            this.machineListing = machineListing;
+            this.charset = charset;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void onLineRead(byte[] line, int offset, int length) {
+            RemoteFile file;
+            if (machineListing) {
+                file = RemoteFile.fromMachineListing(new String(line, offset, length, charset));
+                if (RemoteFile.TYPE_CURRENT_DIRECTORY.equals(file.getType())
+                        || RemoteFile.TYPE_PARENT_DIRECTORY.equals(file.getType())) {
+                    return;
+                }
+            } else {
+                file = RemoteFile.fromListing(line, offset, length, charset);
+                if (file == null) {
+                    return;
+                }
+            }
+            count++;
+            consumer.accept(file);
+        }
+    }
+
+    /**
+     * Iterator that parses the next file of the listing when it is requested.
+     * Runs as the close handler of the stream.
+     */
+    private class ListingIterator implements Iterator<RemoteFile>, Consumer<RemoteFile>, Runnable {
+
+        private final LineReader reader;
+        private final ListingParser parser;
+        private RemoteFile next;
+        private boolean ended = false;
+        private boolean closed = false;
+
+        ListingIterator(LineReader reader, boolean machineListing) {
+            this.reader = reader;
+            this.parser = new ListingParser(machineListing, control.getCharset(), this);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !ended) {
+                try {
+                    ended = !reader.readLine(parser);
+                } catch (IOException e) {
+                    ended = true;
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public RemoteFile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RemoteFile file = next;
+            next = null;
+            return file;
+        }
+
+        @Override
+        public void accept(RemoteFile file) {
+            next = file;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!ended) {
+                abortList();
+                return;
+            }
+            try {
+                data.close();
+                endList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (FTPException e) {
+                throw new UncheckedIOException(new IOException(e));
+            }
+        }
+    }
+
+    /**
+     * Listener that reports progress of the resumed transfer as progress of the whole file.
+     */
+    private static class OffsetListener implements OnBytesReadListener, OnBytesWriteListener {
+
+        private final OnBytesReadListener readListener;
+        private final OnBytesWriteListener writeListener;
+        private final long offset;
+        private final long size;
+
+        OffsetListener(OnBytesReadListener listener, long offset, long size) {
+            this.readListener = listener;
+            this.writeListener = null;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        OffsetListener(OnBytesWriteListener listener, long offset, long size) {
+            this.readListener = null;
+            this.writeListener = listener;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public void onBytesRead(long bytesAmount, long totalRead) {
+            if (readListener != null) {
+                readListener.onBytesRead(size, offset + totalRead);
+            }
+        }
+
+        @Override
+        public void onBytesWrite(long bytesAmount, long totalWritten) {
+            if (writeListener != null) {
+                writeListener.onBytesWrite(size, offset + totalWritten);
+            }
+        }
+    }
+
 }
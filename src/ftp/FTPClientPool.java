@@ -0,0 +1,627 @@
+package ftp;
+
+import ftp.exception.*;
+import ftp.metrics.MetricsListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of logged in FTP clients.
+ * Clients are grouped by host, port, user and password, so the connection and login are paid only once per session,
+ * and a client logged in with one password is never given to the caller with another one.
+ * Idle clients are validated before they are borrowed and evicted after the idle timeout.
+ * With the keepalive enabled, idle clients keep their connections alive, and the clients whose connections
+ * were closed anyway are reconnected in the background before they are borrowed.
+ *
+ * @author Vojko Vladimir
+ */
+public class FTPClientPool {
+
+    /**
+     * Default minimum amount of idle clients kept for every host, port and user.
+     */
+    public static final int DEFAULT_MIN_IDLE = 0;
+    /**
+     * Default maximum amount of clients (idle and borrowed) for every host, port and user.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 8;
+    /**
+     * Default time in milliseconds after which idle client is closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private static final long MIN_EVICTION_PERIOD = 1000;
+    private static final String POOL_CLOSED = "Pool is closed";
+    private static final String NOT_BORROWED = "Client is not borrowed from this pool";
+
+    private final int minIdle;
+    private final int maxSessions;
+    private final long idleTimeout;
+    private final Map<Key, Sessions> sessions = new HashMap<Key, Sessions>();
+    private final Map<FTPClient, Session> borrowed = new IdentityHashMap<FTPClient, Session>();
+    private final ScheduledExecutorService evictor;
+    private boolean closed = false;
+    private int listingCacheMaxEntries = 0;
+    private long listingCacheTtl;
+    private long keepAliveInterval = 0;
+    private ScheduledFuture<?> reconnectTask;
+    private MetricsListener metrics;
+    private TraceBuffer traceBuffer;
+    private int waiting = 0;
+
+    /**
+     * Create pool with default limits.
+     */
+    public FTPClientPool() {
+        this(DEFAULT_MIN_IDLE, DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create pool.
+     *
+     * @param minIdle     minimum amount of idle clients kept for every host, port and user.
+     * @param maxSessions maximum amount of clients (idle and borrowed) for every host, port and user.
+     * @param idleTimeout time in milliseconds after which idle client is closed.
+     */
+    public FTPClientPool(int minIdle, int maxSessions, long idleTimeout) {
+        if (maxSessions < 1 || minIdle < 0 || minIdle > maxSessions || idleTimeout <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.minIdle = minIdle;
+        this.maxSessions = maxSessions;
+        this.idleTimeout = idleTimeout;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FTPClientPool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(MIN_EVICTION_PERIOD, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+                ensureMinIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow client connected to the FTP server and logged in with the user.
+     * Idle client is validated by NOOP command and reconnected if its connection is broken. The keepalive does not
+     * replace the NOOP: the connection dropped silently is found by the keepalive only after the interval
+     * and the timeout.
+     * If there is no idle client and the limit of clients is reached, waits until some client is released.
+     *
+     * @param host address of the host.
+     * @param port port of the server to connect.
+     * @param user user name.
+     * @param pass user password.
+     * @return client ready for use. Must be returned by {@link #release(FTPClient)}.
+     * @throws java.io.IOException                       If an I/O error occurs or the waiting is interrupted.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public FTPClient borrow(String host, int port, String user, String pass)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        Key key = new Key(host, port, user, pass);
+        Sessions hostSessions;
+        Session session;
+
+        synchronized (this) {
+            checkOpen();
+            hostSessions = sessions.get(key);
+            if (hostSessions == null) {
+                hostSessions = new Sessions(key);
+                sessions.put(key, hostSessions);
+            }
+
+            while (true) {
+                session = hostSessions.idle.pollFirst();
+                if (session != null) {
+                    break;
+                }
+                if (hostSessions.total < maxSessions) {
+                    hostSessions.total++;
+                    break;
+                }
+                waiting++;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } finally {
+                    waiting--;
+                }
+                checkOpen();
+            }
+        }
+
+        if (session == null) {
+            try {
+                session = createSession(hostSessions);
+            } catch (IOException e) {
+                discarded(hostSessions);
+                throw e;
+            } catch (FTPException e) {
+                discarded(hostSessions);
+                throw e;
+            }
+        } else {
+            try {
+                validate(session);
+            } catch (IOException e) {
+                discard(session);
+                throw e;
+            } catch (FTPException e) {
+                discard(session);
+                throw e;
+            }
+        }
+
+        synchronized (this) {
+            borrowed.put(session.client, session);
+        }
+        return session.client;
+    }
+
+    /**
+     * Return borrowed client to the pool.
+     * The working directory of the client is changed back to the directory it had after the login.
+     * If this fails, the client is closed.
+     *
+     * @param client client borrowed from this pool.
+     */
+    public void release(FTPClient client) {
+        Session session = takeBorrowed(client);
+
+        try {
+            client.changeWorkingDirectory(session.homeDirectory);
+        } catch (IOException e) {
+            discard(session);
+            return;
+        } catch (FTPException e) {
+            discard(session);
+            return;
+        }
+
+        boolean close;
+        synchronized (this) {
+            close = closed;
+            if (!close) {
+                session.releasedAt = System.currentTimeMillis();
+                session.owner.idle.addFirst(session);
+                notifyAll();
+            }
+        }
+        if (close) {
+            discard(session);
+        }
+    }
+
+    /**
+     * Close borrowed client instead of returning it to the pool.
+     * Should be used if the client is in unknown state (e.g., after an interrupted transfer).
+     *
+     * @param client client borrowed from this pool.
+     */
+    public void invalidate(FTPClient client) {
+        discard(takeBorrowed(client));
+    }
+
+    /**
+     * Enable caching of directory listings shared by all clients of the same host, port and user.
+     * Applies to the clients created after the call.
+     *
+     * @param maxEntries maximum amount of cached listings for every host, port and user.
+     * @param ttl        time in milliseconds after which the cached listing expires.
+     */
+    public synchronized void setListingCache(int maxEntries, long ttl) {
+        if (maxEntries < 1 || ttl <= 0) {
+            throw new IllegalArgumentException();
+        }
+        listingCacheMaxEntries = maxEntries;
+        listingCacheTtl = ttl;
+    }
+
+    /**
+     * Keep the connections of the clients alive and reconnect idle clients whose connections are closed,
+     * so the reconnection does not delay the borrower. Applies to the clients created after the call.
+     *
+     * @param interval keepalive interval in milliseconds (see {@link FTPClient#setKeepAliveInterval(long)}),
+     *                 or 0 to disable the keepalive.
+     */
+    public synchronized void setKeepAliveInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException();
+        }
+        checkOpen();
+        keepAliveInterval = interval;
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+        if (interval > 0) {
+            reconnectTask = evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reconnectBroken();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Set listener of the metrics of the clients (see {@link FTPClient#setMetricsListener(MetricsListener)}).
+     * Applies to the clients created after the call.
+     *
+     * @param metrics metrics listener, or null.
+     */
+    public synchronized void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Record the trace events of the clients into the shared buffer
+     * (see {@link FTPClient#setTraceBuffer(TraceBuffer)}). Applies to the clients created after the call.
+     *
+     * @param buffer trace buffer, or null.
+     */
+    public synchronized void setTraceBuffer(TraceBuffer buffer) {
+        traceBuffer = buffer;
+    }
+
+    /**
+     * Get maximum amount of clients (idle and borrowed) for every host, port and user.
+     *
+     * @return maximum amount of clients.
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Get amount of idle clients in the pool.
+     *
+     * @return amount of idle clients.
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Sessions hostSessions : sessions.values()) {
+            count += hostSessions.idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * Get amount of borrowed clients.
+     *
+     * @return amount of borrowed clients.
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Get amount of threads waiting to borrow the client, because all clients for the host are borrowed.
+     *
+     * @return amount of waiting threads.
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * Close all idle clients and stop the eviction.
+     * Borrowed clients are closed when they are released.
+     */
+    public void close() {
+        List<Session> idle = new ArrayList<Session>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Sessions hostSessions : sessions.values()) {
+                idle.addAll(hostSessions.idle);
+                hostSessions.total -= hostSessions.idle.size();
+                hostSessions.idle.clear();
+            }
+            notifyAll();
+        }
+        evictor.shutdownNow();
+
+        for (Session session : idle) {
+            disconnect(session);
+        }
+    }
+
+    private Session createSession(Sessions hostSessions)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        FTPClient client = new FTPClient();
+        client.setMetricsListener(getMetricsListener());
+        client.setTraceBuffer(getTraceBuffer());
+        try {
+            client.connect(hostSessions.key.host, hostSessions.key.port);
+            client.login(hostSessions.key.user, hostSessions.key.pass);
+            client.setListingCache(getListingCache(hostSessions));
+            client.setKeepAliveInterval(getKeepAliveInterval());
+            return new Session(hostSessions, client, client.printWorkingDirectory());
+        } catch (IOException e) {
+            client.disconnect();
+            throw e;
+        } catch (FTPException e) {
+            client.disconnect();
+            throw e;
+        }
+    }
+
+    private synchronized ListingCache getListingCache(Sessions hostSessions) {
+        if (hostSessions.listingCache == null && listingCacheMaxEntries > 0) {
+            hostSessions.listingCache = new ListingCache(listingCacheMaxEntries, listingCacheTtl);
+        }
+        return hostSessions.listingCache;
+    }
+
+    private synchronized TraceBuffer getTraceBuffer() {
+        return traceBuffer;
+    }
+
+    private synchronized MetricsListener getMetricsListener() {
+        return metrics;
+    }
+
+    private synchronized long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * Check the connection of idle client by NOOP and restore it, if it is broken.
+     */
+    private void validate(Session session)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        if (!session.client.isConnected()) {
+            session.client.reconnect();
+            return;
+        }
+        try {
+            session.client.noOperation();
+        } catch (IOException e) {
+            session.client.reconnect();
+        } catch (ServiceUnavailableException e) {
+            session.client.reconnect();
+        }
+    }
+
+    private synchronized Session takeBorrowed(FTPClient client) {
+        Session session = borrowed.remove(client);
+        if (session == null) {
+            throw new IllegalArgumentException(NOT_BORROWED);
+        }
+        return session;
+    }
+
+    private void discard(Session session) {
+        discarded(session.owner);
+        disconnect(session);
+    }
+
+    private synchronized void discarded(Sessions hostSessions) {
+        hostSessions.total--;
+        notifyAll();
+    }
+
+    private void disconnect(Session session) {
+        try {
+            session.client.disconnect();
+        } catch (IOException ignored) {
+            // The client is thrown away anyway.
+        }
+    }
+
+    /**
+     * Close clients that are idle longer than the idle timeout, but keep minimum amount of idle clients.
+     */
+    private void evictIdle() {
+        List<Session> evicted = new ArrayList<Session>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            for (Sessions hostSessions : sessions.values()) {
+                Iterator<Session> oldest = hostSessions.idle.descendingIterator();
+                while (oldest.hasNext() && hostSessions.idle.size() > minIdle) {
+                    Session session = oldest.next();
+                    if (now - session.releasedAt < idleTimeout) {
+                        break;
+                    }
+                    oldest.remove();
+                    hostSessions.total--;
+                    evicted.add(session);
+                }
+            }
+        }
+
+        for (Session session : evicted) {
+            disconnect(session);
+        }
+    }
+
+    /**
+     * Reconnect idle clients whose connections were closed by the server or found broken by the keepalive.
+     * Clients are taken out of the pool while they are reconnected, clients that fail to reconnect are closed.
+     */
+    private void reconnectBroken() {
+        List<Session> broken = new ArrayList<Session>();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (Sessions hostSessions : sessions.values()) {
+                Iterator<Session> idle = hostSessions.idle.iterator();
+                while (idle.hasNext()) {
+                    Session session = idle.next();
+                    if (!session.client.isConnected()) {
+                        idle.remove();
+                        broken.add(session);
+                    }
+                }
+            }
+        }
+
+        for (Session session : broken) {
+            try {
+                session.client.reconnect();
+            } catch (IOException e) {
+                discard(session);
+                continue;
+            } catch (FTPException e) {
+                discard(session);
+                continue;
+            }
+
+            boolean close;
+            synchronized (this) {
+                close = closed;
+                if (!close) {
+                    session.owner.idle.addLast(session);
+                    notifyAll();
+                }
+            }
+            if (close) {
+                discard(session);
+            }
+        }
+    }
+
+    /**
+     * Open new clients for every known host, port and user that has less idle clients than minimum.
+     */
+    private void ensureMinIdle() {
+        List<Sessions> missing = new ArrayList<Sessions>();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            for (Sessions hostSessions : sessions.values()) {
+                for (int i = hostSessions.idle.size(); i < minIdle && hostSessions.total < maxSessions; i++) {
+                    hostSessions.total++;
+                    missing.add(hostSessions);
+                }
+            }
+        }
+
+        for (Sessions hostSessions : missing) {
+            Session session;
+            try {
+                session = createSession(hostSessions);
+            } catch (IOException e) {
+                discarded(hostSessions);
+                continue;
+            } catch (FTPException e) {
+                discarded(hostSessions);
+                continue;
+            }
+
+            boolean close;
+            synchronized (this) {
+                close = closed;
+                if (!close) {
+                    session.releasedAt = System.currentTimeMillis();
+                    hostSessions.idle.addLast(session);
+                    notifyAll();
+                }
+            }
+            if (close) {
+                discard(session);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(POOL_CLOSED);
+        }
+    }
+
+    /**
+     * Host, port, user and password that identify the group of interchangeable clients.
+     * The password is a part of the key, so the logged in clients are only given to the callers
+     * that know the password they were logged in with.
+     */
+    private static final class Key {
+        final String host;
+        final int port;
+        final String user;
+        final String pass;
+
+        Key(String host, int port, String user, String pass) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.pass = pass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return port == key.port && host.equals(key.host) && user.equals(key.user)
+                    && Objects.equals(pass, key.pass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * host.hashCode() + port) + user.hashCode()) + Objects.hashCode(pass);
+        }
+    }
+
+    /**
+     * Clients of one host, port, user and password. Idle clients are ordered from the most to the least recently used.
+     */
+    private static final class Sessions {
+        final Key key;
+        final Deque<Session> idle = new ArrayDeque<Session>();
+        ListingCache listingCache;
+        int total = 0;
+
+        Sessions(Key key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Session {
+        final Sessions owner;
+        final FTPClient client;
+        final String homeDirectory;
+        long releasedAt;
+
+        Session(Sessions owner, FTPClient client, String homeDirectory) {
+            this.owner = owner;
+            this.client = client;
+            this.homeDirectory = homeDirectory;
+        }
+    }
+}
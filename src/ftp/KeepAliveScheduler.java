@@ -0,0 +1,50 @@
+package ftp;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer shared by all clients with the keepalive enabled.
+ * The control connection of every client is checked several times per keepalive interval, NOOP is sent
+ * only when the connection had no traffic for the whole interval.
+ *
+ * @author Vojko Vladimir
+ */
+final class KeepAliveScheduler {
+
+    private static final long MIN_CHECK_PERIOD = 100;
+    private static final int CHECKS_PER_INTERVAL = 4;
+
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "FTPClient-keepalive");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private KeepAliveScheduler() {
+    }
+
+    /**
+     * Start checking the control connection of the client.
+     *
+     * @param client   client to keep alive.
+     * @param interval keepalive interval of the client in milliseconds.
+     * @return task that must be cancelled when the client is disconnected.
+     */
+    static ScheduledFuture<?> schedule(final FTPClient client, long interval) {
+        long period = Math.max(MIN_CHECK_PERIOD, interval / CHECKS_PER_INTERVAL);
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                client.keepAlive();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,188 @@
+package ftp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of directory listings keyed by the absolute path of the directory.
+ * Listings expire after the time to live, and the least recently used listings are evicted when the cache
+ * is full. The cache can be shared by several clients of the same server and user.
+ *
+ * @author Vojko Vladimir
+ */
+public class ListingCache {
+
+    /**
+     * Default maximum amount of cached listings.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    /**
+     * Default time in milliseconds after which the cached listing expires.
+     */
+    public static final long DEFAULT_TTL = 30 * 1000;
+
+    private static final String SEPARATOR = "/";
+
+    private final long ttl;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Create cache with default limits.
+     */
+    public ListingCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Create cache.
+     *
+     * @param maxEntries maximum amount of cached listings.
+     * @param ttl        time in milliseconds after which the cached listing expires.
+     */
+    public ListingCache(final int maxEntries, long ttl) {
+        if (maxEntries < 1 || ttl <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ListingCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get cached listing of the directory.
+     *
+     * @param directory absolute path of the directory.
+     * @return copy of the listing, or null if it is not cached or expired.
+     */
+    public synchronized ArrayList<RemoteFile> get(String directory) {
+        String key = normalize(directory);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt >= ttl) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return new ArrayList<RemoteFile>(entry.files);
+    }
+
+    /**
+     * Cache listing of the directory.
+     *
+     * @param directory absolute path of the directory.
+     * @param files     listing of the directory.
+     */
+    public synchronized void put(String directory, List<RemoteFile> files) {
+        entries.put(normalize(directory), new Entry(new ArrayList<RemoteFile>(files)));
+    }
+
+    /**
+     * Invalidate listings affected by the change of the file or directory: the listing of its parent,
+     * its own listing and listings of all its subdirectories.
+     *
+     * @param path absolute path of the changed file or directory.
+     */
+    public synchronized void invalidate(String path) {
+        String key = normalize(path);
+        entries.remove(parent(key));
+        entries.remove(key);
+
+        String prefix = key.endsWith(SEPARATOR) ? key : key + SEPARATOR;
+        Iterator<String> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all cached listings.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Normalize the absolute path: remove empty, "." and ".." names and the trailing separator.
+     *
+     * @param path absolute path.
+     * @return normalized path.
+     */
+    static String normalize(String path) {
+        List<String> names = new ArrayList<String>();
+        for (String name : path.split(SEPARATOR)) {
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                if (!names.isEmpty()) {
+                    names.remove(names.size() - 1);
+                }
+            } else {
+                names.add(name);
+            }
+        }
+
+        if (names.isEmpty()) {
+            return SEPARATOR;
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String name : names) {
+            normalized.append(SEPARATOR).append(name);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Resolve the path against the directory.
+     *
+     * @param directory absolute path of the directory.
+     * @param path      absolute path, or path relative to the directory.
+     * @return normalized absolute path.
+     */
+    static String resolve(String directory, String path) {
+        if (path == null) {
+            return normalize(directory);
+        }
+        return normalize(path.startsWith(SEPARATOR) ? path : directory + SEPARATOR + path);
+    }
+
+    private static String parent(String normalized) {
+        int index = normalized.lastIndexOf(SEPARATOR);
+        return (index <= 0) ? SEPARATOR : normalized.substring(0, index);
+    }
+
+    private static final class Entry {
+        final List<RemoteFile> files;
+        final long createdAt = System.currentTimeMillis();
+
+        Entry(List<RemoteFile> files) {
+            this.files = files;
+        }
+    }
+}
@@ -1,12 +1,44 @@
 package ftp;
 
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
 /**
  * Represent server files.
+ * Files are created either from the line of LIST in the Unix "ls -l" format, or from the entry of
+ * MLSD/MLST (RFC 3659), which has exact size, modification time, type and permissions.
+ * Files parsed from the raw bytes of LIST keep only the offsets of the text fields, and decode them
+ * on the first access.
  *
  * @author Vojko Vladimir
  */
 public class RemoteFile {
 
+    /**
+     * Type of the file.
+     */
+    public static final String TYPE_FILE = "file";
+    /**
+     * Type of the directory.
+     */
+    public static final String TYPE_DIRECTORY = "dir";
+    /**
+     * Type of the symbolic link in LIST.
+     */
+    public static final String TYPE_LINK = "link";
+    /**
+     * Type of the listed directory itself in MLSD.
+     */
+    public static final String TYPE_CURRENT_DIRECTORY = "cdir";
+    /**
+     * Type of the parent of the listed directory in MLSD.
+     */
+    public static final String TYPE_PARENT_DIRECTORY = "pdir";
+
     private static final int PERMISSIONS_ID = 0;
     private static final int TYPE_ID = 1;
     private static final int OWNER_ID = 2;
@@ -17,47 +49,270 @@ public class RemoteFile {
     private static final int TIME_ID = 7;
     private static final int NAME_ID = 8;
 
+    private static final String FACT_TYPE = "type";
+    private static final String FACT_SIZE = "size";
+    private static final String FACT_MODIFY = "modify";
+    private static final String FACT_PERM = "perm";
+    private static final String FACT_UNIX_MODE = "unix.mode";
+    private static final String FACT_UNIX_OWNER = "unix.owner";
+    private static final String FACT_UNIX_GROUP = "unix.group";
+    private static final String TIME_FORMAT = "%02d:%02d";
+    private static final int FIELDS_COUNT = NAME_ID + 1;
+
     private String permissions;
-    private int type;
+    private String type;
+    private boolean folder;
     private String owner;
     private String group;
-    private int size;
+    private long size = -1;
     private String month;
     private int day;
     private String time;
+    private Instant modified;
+    private String perm;
     private String name;
-    
+    private byte[] line;
+    private int[] fields;
+    private Charset charset;
+
+    /**
+     * Create file from the line of LIST in the Unix "ls -l" format.
+     *
+     * @param fileProperties line of the listing.
+     */
     public RemoteFile(String fileProperties) {
-        String[] properties = fileProperties.split("\\s+");
+        String[] properties = fileProperties.trim().split("\\s+", FIELDS_COUNT);
 
         permissions = properties[PERMISSIONS_ID];
-        type = Integer.parseInt(properties[TYPE_ID]);
+        type = typeOf(permissions.charAt(0));
+        folder = type.equals(TYPE_DIRECTORY);
         owner = properties[OWNER_ID];
         group = properties[GROUP_ID];
-        size = Integer.parseInt(properties[SIZE_ID]);
+        size = Long.parseLong(properties[SIZE_ID]);
         month = properties[MONTH_ID];
         day = Integer.parseInt(properties[DAY_ID]);
         time = properties[TIME_ID];
         name = properties[NAME_ID];
     }
 
+    private RemoteFile() {
+    }
+
+    /**
+     * Create file from the raw bytes of the LIST line in the Unix "ls -l" format.
+     * Numbers are parsed immediately, text fields are decoded when they are accessed.
+     *
+     * @param bytes   buffer with the line.
+     * @param offset  offset of the line in the buffer.
+     * @param length  length of the line.
+     * @param charset charset of the file names.
+     * @return file described by the line, or null if the line is not a file entry (e.g., "total 42").
+     */
+    public static RemoteFile fromListing(byte[] bytes, int offset, int length, Charset charset) {
+        int[] fields = new int[FIELDS_COUNT * 2];
+        int end = offset + length;
+        int position = offset;
+
+        for (int field = 0; field < FIELDS_COUNT; field++) {
+            while (position < end && isWhitespace(bytes[position])) {
+                position++;
+            }
+            if (position == end) {
+                return null;
+            }
+            fields[field * 2] = position - offset;
+            if (field < NAME_ID) {
+                while (position < end && !isWhitespace(bytes[position])) {
+                    position++;
+                }
+            } else {
+                position = end;
+            }
+            fields[field * 2 + 1] = position - offset;
+        }
+
+        long links = parseNumber(bytes, offset, fields, TYPE_ID);
+        long size = parseNumber(bytes, offset, fields, SIZE_ID);
+        long day = parseNumber(bytes, offset, fields, DAY_ID);
+        if (links < 0 || size < 0 || day < 0) {
+            return null;
+        }
+
+        RemoteFile file = new RemoteFile();
+        file.type = typeOf((char) bytes[offset + fields[PERMISSIONS_ID * 2]]);
+        file.folder = file.type.equals(TYPE_DIRECTORY);
+        file.size = size;
+        file.day = (int) day;
+        file.line = new byte[length];
+        System.arraycopy(bytes, offset, file.line, 0, length);
+        file.fields = fields;
+        file.charset = charset;
+        return file;
+    }
+
+    /**
+     * Get type of the file from the first character of the permissions in LIST. The number of links
+     * does not tell the type: files can have several hard links, and some servers list directories
+     * with one link.
+     */
+    private static String typeOf(char permissionsType) {
+        switch (permissionsType) {
+            case 'd':
+                return TYPE_DIRECTORY;
+            case 'l':
+                return TYPE_LINK;
+            default:
+                return TYPE_FILE;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Parse decimal number of the field without decoding it.
+     *
+     * @return the number, or -1 if the field is not a number.
+     */
+    private static long parseNumber(byte[] bytes, int offset, int[] fields, int field) {
+        int start = offset + fields[field * 2];
+        int end = offset + fields[field * 2 + 1];
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    private String decodeField(int field) {
+        int start = fields[field * 2];
+        return new String(line, start, fields[field * 2 + 1] - start, charset);
+    }
+
+    /**
+     * Create file from the entry of MLSD or MLST: facts separated by semicolons, space and the name.
+     * Unknown facts are ignored, missing facts leave the properties unknown.
+     *
+     * @param entry entry of the machine listing.
+     * @return file described by the entry.
+     */
+    public static RemoteFile fromMachineListing(String entry) {
+        RemoteFile file = new RemoteFile();
+        int nameIndex = entry.indexOf(' ');
+        file.name = entry.substring(nameIndex + 1);
+
+        int start = 0;
+        while (start < nameIndex) {
+            int end = entry.indexOf(';', start);
+            if (end < 0 || end > nameIndex) {
+                end = nameIndex;
+            }
+            int separator = entry.indexOf('=', start);
+            if (separator > start && separator < end) {
+                file.setFact(entry.substring(start, separator).toLowerCase(Locale.ROOT),
+                        entry.substring(separator + 1, end));
+            }
+            start = end + 1;
+        }
+        return file;
+    }
+
+    private void setFact(String fact, String value) {
+        if (fact.equals(FACT_TYPE)) {
+            type = value.toLowerCase(Locale.ROOT);
+            folder = type.equals(TYPE_DIRECTORY);
+        } else if (fact.equals(FACT_SIZE)) {
+            try {
+                size = Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+            }
+        } else if (fact.equals(FACT_MODIFY)) {
+            setModified(parseTimeValue(value));
+        } else if (fact.equals(FACT_PERM)) {
+            perm = value;
+        } else if (fact.equals(FACT_UNIX_MODE)) {
+            permissions = value;
+        } else if (fact.equals(FACT_UNIX_OWNER)) {
+            owner = value;
+        } else if (fact.equals(FACT_UNIX_GROUP)) {
+            group = value;
+        }
+    }
+
+    private void setModified(Instant modified) {
+        this.modified = modified;
+        if (modified != null) {
+            LocalDateTime dateTime = LocalDateTime.ofInstant(modified, ZoneOffset.UTC);
+            month = dateTime.getMonth().getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
+            day = dateTime.getDayOfMonth();
+            time = String.format(TIME_FORMAT, dateTime.getHour(), dateTime.getMinute());
+        }
+    }
+
+    /**
+     * Parse time value of RFC 3659: "YYYYMMDDHHMMSS" with optional fraction of the second, always in UTC.
+     *
+     * @param value time value.
+     * @return parsed time, or null if the value is malformed.
+     */
+    static Instant parseTimeValue(String value) {
+        try {
+            int year = Integer.parseInt(value.substring(0, 4));
+            int month = Integer.parseInt(value.substring(4, 6));
+            int day = Integer.parseInt(value.substring(6, 8));
+            int hour = Integer.parseInt(value.substring(8, 10));
+            int minute = Integer.parseInt(value.substring(10, 12));
+            int second = Integer.parseInt(value.substring(12, 14));
+            int nanos = 0;
+            if (value.length() > 15 && value.charAt(14) == '.') {
+                String fraction = (value.substring(15) + "000000000").substring(0, 9);
+                nanos = Integer.parseInt(fraction);
+            }
+            return LocalDateTime.of(year, month, day, hour, minute, second, nanos).toInstant(ZoneOffset.UTC);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
     public String getName() {
+        if (name == null && line != null) {
+            name = decodeField(NAME_ID);
+        }
         return name;
     }
 
     public String getOwner() {
+        if (owner == null && line != null) {
+            owner = decodeField(OWNER_ID);
+        }
         return owner;
     }
 
     public String getGroup() {
+        if (group == null && line != null) {
+            group = decodeField(GROUP_ID);
+        }
         return group;
     }
 
-    public int getSize() {
+    /**
+     * Get size of the file.
+     *
+     * @return size in bytes, or -1 if unknown.
+     */
+    public long getSize() {
         return size;
     }
 
     public String getMonth() {
+        if (month == null && line != null) {
+            month = decodeField(MONTH_ID);
+        }
         return month;
     }
 
@@ -66,15 +321,49 @@ public class RemoteFile {
     }
 
     public String getTime() {
+        if (time == null && line != null) {
+            time = decodeField(TIME_ID);
+        }
         return time;
     }
 
+    /**
+     * Get exact time of the last modification.
+     *
+     * @return modification time, or null if unknown (e.g., the file is from LIST).
+     */
+    public Instant getModified() {
+        return modified;
+    }
+
     public String getPermissions() {
+        if (permissions == null && line != null) {
+            permissions = decodeField(PERMISSIONS_ID);
+        }
         return permissions;
     }
 
+    /**
+     * Get permissions of the current user from the "perm" fact of RFC 3659 (e.g., "adfrw").
+     *
+     * @return permissions, or null if unknown.
+     */
+    public String getPerm() {
+        return perm;
+    }
+
+    /**
+     * Get type of the file.
+     *
+     * @return {@link #TYPE_FILE}, {@link #TYPE_DIRECTORY}, {@link #TYPE_LINK} or another type reported
+     * by MLSD/MLST, or null if unknown.
+     */
+    public String getType() {
+        return type;
+    }
+
     public boolean isFolder() {
-        return type != 1;
+        return folder;
     }
 
 }
@@ -0,0 +1,42 @@
+package ftp;
+
+import java.nio.file.FileVisitResult;
+
+/**
+ * Visitor of the files of the remote directory tree.
+ * When the tree is walked by several sessions, the methods are called concurrently from several threads.
+ *
+ * @author Vojko Vladimir
+ */
+public interface RemoteFileVisitor {
+
+    /**
+     * Called for the directory before its entries are listed.
+     *
+     * @param path      absolute path of the directory.
+     * @param directory the directory.
+     * @return {@link FileVisitResult#CONTINUE} to walk the directory, {@link FileVisitResult#SKIP_SUBTREE}
+     * to skip it, {@link FileVisitResult#SKIP_SIBLINGS} to skip it and the rest of its siblings,
+     * {@link FileVisitResult#TERMINATE} to stop the walk.
+     */
+    public FileVisitResult preVisitDirectory(String path, RemoteFile directory);
+
+    /**
+     * Called for the file that is not a directory.
+     *
+     * @param path absolute path of the file.
+     * @param file the file.
+     * @return {@link FileVisitResult#SKIP_SIBLINGS} to skip the rest of its siblings,
+     * {@link FileVisitResult#TERMINATE} to stop the walk, otherwise the walk continues.
+     */
+    public FileVisitResult visitFile(String path, RemoteFile file);
+
+    /**
+     * Called when the directory can't be listed.
+     *
+     * @param path absolute path of the directory.
+     * @param e    failure of the listing.
+     * @return {@link FileVisitResult#TERMINATE} to stop the walk, otherwise the walk continues.
+     */
+    public FileVisitResult visitDirectoryFailed(String path, Exception e);
+}
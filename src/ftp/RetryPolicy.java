@@ -0,0 +1,107 @@
+package ftp;
+
+import ftp.exception.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Policy of retrying failed operations with exponential backoff.
+ *
+ * @author Vojko Vladimir
+ */
+public class RetryPolicy {
+
+    /**
+     * Policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 1, 0);
+    /**
+     * Policy with 5 attempts and delays of 1, 2, 4 and 8 seconds between them.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(5, 1000, 2, 30 * 1000);
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final double multiplier;
+    private final long maxDelay;
+
+    /**
+     * Create retry policy.
+     *
+     * @param maxAttempts  maximum amount of attempts, including the first one.
+     * @param initialDelay delay in milliseconds before the first retry.
+     * @param multiplier   multiplier of the delay for every next retry.
+     * @param maxDelay     maximum delay in milliseconds between attempts.
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, double multiplier, long maxDelay) {
+        if (maxAttempts < 1 || initialDelay < 0 || multiplier < 1 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException();
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get delay before the next attempt.
+     *
+     * @param attempt number of the failed attempt, starting from 1.
+     * @return delay in milliseconds.
+     */
+    public long getDelay(int attempt) {
+        double delay = initialDelay * Math.pow(multiplier, attempt - 1);
+        return (delay >= maxDelay) ? maxDelay : (long) delay;
+    }
+
+    /**
+     * Check whether the failed attempt should be retried.
+     *
+     * @param e       failure of the attempt.
+     * @param attempt number of the failed attempt, starting from 1.
+     * @return true if the attempt should be retried.
+     */
+    public boolean shouldRetry(Exception e, int attempt) {
+        return attempt < maxAttempts && isTransient(e) && !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Wait before the next attempt.
+     *
+     * @param attempt number of the failed attempt, starting from 1.
+     * @throws java.io.InterruptedIOException If the waiting is interrupted.
+     */
+    public void await(int attempt) throws InterruptedIOException {
+        long delay = getDelay(attempt);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Check whether the failure might disappear after the retry:
+     * I/O errors, closed connections and transient negative replies.
+     *
+     * @param e failure.
+     * @return true if the failure is transient.
+     */
+    public static boolean isTransient(Exception e) {
+        return (e instanceof IOException && !(e instanceof InterruptedIOException))
+                || e instanceof ServiceUnavailableException
+                || e instanceof CantOpenDataConnectionException
+                || e instanceof ConnectionClosedException
+                || e instanceof FileActionNotTakenException
+                || e instanceof LocalErrorInProcessingException
+                || e instanceof NoConnectionException;
+    }
+}
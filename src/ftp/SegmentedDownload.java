@@ -0,0 +1,178 @@
+package ftp;
+
+import ftp.connection.OnBytesReadListener;
+import ftp.exception.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Retrieve one file in several segments at the same time.
+ * Every segment is retrieved by its own session with the restart of transfer from the segment offset.
+ *
+ * @author Vojko Vladimir
+ */
+class SegmentedDownload {
+
+    /**
+     * Minimum size of one segment. Smaller segments do not pay off the cost of the additional session.
+     */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final FTPClient origin;
+    private final String pathName;
+    private final Path local;
+    private final long size;
+    private final int segments;
+    private final OnBytesReadListener listener;
+    private long totalRead = 0;
+
+    SegmentedDownload(FTPClient origin, String pathName, Path local, long size, int segments,
+                      OnBytesReadListener listener) {
+        this.origin = origin;
+        this.pathName = pathName;
+        this.local = local;
+        this.size = size;
+        this.segments = segments;
+        this.listener = listener;
+    }
+
+    /**
+     * Get amount of segments to use for the file.
+     *
+     * @param size     size of the file, or -1 if unknown.
+     * @param segments maximum amount of segments.
+     * @return amount of segments, 1 if the file should not be split.
+     */
+    static int segmentsCount(long size, int segments) {
+        if (size < 0) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(segments, size / MIN_SEGMENT_SIZE));
+    }
+
+    long run()
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        FileChannel file = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+
+        try {
+            file.write(ByteBuffer.wrap(new byte[1]), size - 1);
+
+            long segmentSize = size / segments;
+            CompletionService<Long> completion = new ExecutorCompletionService<Long>(executor);
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+            for (int i = 0; i < segments; i++) {
+                long offset = i * segmentSize;
+                long length = (i == segments - 1) ? size - offset : segmentSize;
+                futures.add(completion.submit(new Segment(file, offset, length)));
+            }
+
+            for (int i = 0; i < segments; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    for (Future<Long> future : futures) {
+                        future.cancel(true);
+                    }
+                    rethrow(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
+            file.close();
+        }
+
+        return size;
+    }
+
+    private synchronized void onSegmentRead(long bytesRead) {
+        totalRead += bytesRead;
+        if (listener != null) {
+            listener.onBytesRead(size, totalRead);
+        }
+    }
+
+    private static void rethrow(Throwable cause)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            CantOpenDataConnectionException, ConnectionClosedException, ActionAbortedException,
+            FileActionNotTakenException, ActionNotTakenException, NeedAccountException,
+            CommandNotImplementedException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof NoConnectionException) {
+            throw (NoConnectionException) cause;
+        } else if (cause instanceof ServiceUnavailableException) {
+            throw (ServiceUnavailableException) cause;
+        } else if (cause instanceof NotLoggedInException) {
+            throw (NotLoggedInException) cause;
+        } else if (cause instanceof CantOpenDataConnectionException) {
+            throw (CantOpenDataConnectionException) cause;
+        } else if (cause instanceof ConnectionClosedException) {
+            throw (ConnectionClosedException) cause;
+        } else if (cause instanceof ActionAbortedException) {
+            throw (ActionAbortedException) cause;
+        } else if (cause instanceof FileActionNotTakenException) {
+            throw (FileActionNotTakenException) cause;
+        } else if (cause instanceof ActionNotTakenException) {
+            throw (ActionNotTakenException) cause;
+        } else if (cause instanceof NeedAccountException) {
+            throw (NeedAccountException) cause;
+        } else if (cause instanceof CommandNotImplementedException) {
+            throw (CommandNotImplementedException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException(cause);
+    }
+
+    /**
+     * Retrieve one segment of the file by the new session.
+     */
+    private class Segment implements Callable<Long>, OnBytesReadListener {
+
+        private final FileChannel file;
+        private final long offset;
+        private final long length;
+        private long reported = 0;
+
+        Segment(FileChannel file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public Long call() throws Exception {
+            FTPClient session = origin.newSession();
+            try {
+                return session.getFileRange(pathName, file, offset, length, this);
+            } finally {
+                session.disconnect();
+            }
+        }
+
+        @Override
+        public void onBytesRead(long bytesAmount, long totalRead) {
+            onSegmentRead(totalRead - reported);
+            reported = totalRead;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ftp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free ring buffer of the latest trace events of one or more clients (see
+ * {@link FTPClient#setTraceBuffer(TraceBuffer)}). The buffer keeps the last events only, so the clients can
+ * trace all the time and the trace of the failed session can be dumped after the error.
+ *
+ * @author Vojko Vladimir
+ */
+public class TraceBuffer {
+
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final AtomicReferenceArray<TraceEvent> events;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Create trace buffer.
+     *
+     * @param capacity maximum amount of kept events, rounded up to the power of two.
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException();
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        events = new AtomicReferenceArray<TraceEvent>(size);
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return events.length();
+    }
+
+    /**
+     * Record the event, overwriting the oldest one if the buffer is full.
+     */
+    void add(TraceEvent.Type type, int sessionId, String command, String text, int replyCode, long position,
+             long value) {
+        long next = sequence.getAndIncrement();
+        events.set((int) (next & mask),
+                new TraceEvent(type, sessionId, next, command, text, replyCode, position, value));
+    }
+
+    /**
+     * Get the kept events of all clients.
+     *
+     * @return events, oldest first.
+     */
+    public List<TraceEvent> getEvents() {
+        return getEvents(-1);
+    }
+
+    /**
+     * Get the kept events of one client.
+     *
+     * @param sessionId session id of the client, or -1 for all clients.
+     * @return events, oldest first.
+     */
+    public List<TraceEvent> getEvents(int sessionId) {
+        List<TraceEvent> list = new ArrayList<TraceEvent>();
+        for (int i = 0; i < events.length(); i++) {
+            TraceEvent event = events.get(i);
+            if (event != null && (sessionId < 0 || event.getSessionId() == sessionId)) {
+                list.add(event);
+            }
+        }
+        Collections.sort(list, new Comparator<TraceEvent>() {
+            @Override
+            public int compare(TraceEvent e1, TraceEvent e2) {
+                return Long.compare(e1.getSequence(), e2.getSequence());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Write the kept events of one client, one per line.
+     *
+     * @param sessionId session id of the client, or -1 for all clients.
+     * @param out       where to write the events.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void dump(int sessionId, Appendable out) throws IOException {
+        for (TraceEvent event : getEvents(sessionId)) {
+            out.append(event.toString()).append(NEW_LINE);
+        }
+    }
+
+    /**
+     * Remove all kept events.
+     */
+    public void clear() {
+        for (int i = 0; i < events.length(); i++) {
+            events.set(i, null);
+        }
+    }
+}
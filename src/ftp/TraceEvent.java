@@ -0,0 +1,203 @@
+package ftp;
+
+import java.time.Instant;
+
+/**
+ * Event of the control or data connection recorded by the {@link Debugger}.
+ * Events keep the references to the command, argument and reply text as they are, the message is built only
+ * when the event is printed.
+ *
+ * @author Vojko Vladimir
+ */
+public final class TraceEvent {
+
+    private static final String CONTROL = "CONTROL";
+    private static final String DATA = "DATA";
+
+    /**
+     * Type of the event.
+     */
+    public enum Type {
+        OPEN(CONTROL, "OPEN"),
+        CLOSE(CONTROL, "CLOSE"),
+        LOGIN(CONTROL, "LOGIN"),
+        QUIT(CONTROL, "QUIT"),
+        RESTORE_CONNECTION(CONTROL, "RESTORE_CONNECTION"),
+        SEND_COMMAND(CONTROL, "SEND_COMMAND"),
+        SEND_COMMANDS(CONTROL, "SEND_COMMANDS"),
+        REPLY(CONTROL, "REPLY"),
+        UNSOLICITED_REPLY(CONTROL, "UNSOLICITED_REPLY"),
+        KEEP_ALIVE(CONTROL, "KEEP_ALIVE"),
+        KEEP_ALIVE_TIMEOUT(CONTROL, "KEEP_ALIVE_TIMEOUT"),
+        CONNECTION_LOST(CONTROL, "CONNECTION_LOST"),
+        DATA_OPEN(DATA, "OPEN"),
+        DATA_CLOSE(DATA, "CLOSE"),
+        READ_LINES(DATA, "READ_LINES"),
+        GET_BYTES(DATA, "GET_BYTES"),
+        COPY_BYTES(DATA, "COPY_BYTES"),
+        READ_MAPPED(DATA, "READ_MAPPED"),
+        READ_RANGE(DATA, "READ_RANGE"),
+        WRITE_BYTES(DATA, "WRITE_BYTES"),
+        TRANSFER_FILE(DATA, "TRANSFER_FILE"),
+        WRITE_FILE(DATA, "WRITE_FILE"),
+        DATA_ENDED_PREMATURELY(DATA, "Data stream ended prematurely");
+
+        private final String tag;
+        private final String label;
+
+        Type(String tag, String label) {
+            this.tag = tag;
+            this.label = label;
+        }
+
+        /**
+         * Get the connection of the event.
+         *
+         * @return "CONTROL" or "DATA".
+         */
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final Type type;
+    private final int sessionId;
+    private final long sequence;
+    private final long nanoTime;
+    private final long timeMillis;
+    private final String command;
+    private final String text;
+    private final int replyCode;
+    private final long position;
+    private final long value;
+
+    TraceEvent(Type type, int sessionId, long sequence, String command, String text, int replyCode,
+               long position, long value) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.sequence = sequence;
+        this.nanoTime = System.nanoTime();
+        this.timeMillis = System.currentTimeMillis();
+        this.command = command;
+        this.text = text;
+        this.replyCode = replyCode;
+        this.position = position;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get id of the client that recorded the event.
+     *
+     * @return session id, unique within the JVM.
+     */
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Get the order of the event in the {@link TraceBuffer}.
+     *
+     * @return sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the monotonic time of the event, for measuring intervals between the events.
+     *
+     * @return {@link System#nanoTime()} of the event.
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * Get the wall-clock time of the event.
+     *
+     * @return milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Get the sent command.
+     *
+     * @return command (e.g., "RETR "), or null if the event is not about the command.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Get the text of the event: argument of the command, text of the reply, host or error.
+     *
+     * @return text, or null.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Get the code of the received reply.
+     *
+     * @return reply code, or 0 if the event is not about the reply.
+     */
+    public int getReplyCode() {
+        return replyCode;
+    }
+
+    /**
+     * Get the position of the transferred range.
+     *
+     * @return position, or -1.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the number of the event: size of the transfer, amount of commands or port.
+     *
+     * @return value, or -1.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Get the message of the event in the format of the {@link Debugger.DebugListener}.
+     *
+     * @return message (e.g., "CONTROL.SEND_COMMAND: RETR file.txt").
+     */
+    public String getMessage() {
+        StringBuilder message = new StringBuilder(type.tag).append('.').append(type.label);
+        if (replyCode != 0) {
+            message.append(": ").append(replyCode).append(text);
+        } else if (command != null) {
+            message.append(": ").append(command);
+            if (text != null) {
+                message.append(text);
+            }
+        } else if (text != null && value >= 0) {
+            message.append(' ').append(text).append(':').append(value);
+        } else if (text != null) {
+            message.append(": ").append(text);
+        } else if (position >= 0) {
+            message.append(": ").append(position).append('+').append(value);
+        } else if (value >= 0) {
+            message.append(": ").append(value);
+        }
+        return message.toString();
+    }
+
+    @Override
+    public String toString() {
+        return Instant.ofEpochMilli(timeMillis) + " #" + sessionId + " " + getMessage();
+    }
+}
@@ -0,0 +1,202 @@
+package ftp;
+
+import ftp.exception.FTPException;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * Walk the remote directory tree by several sessions at the same time.
+ * Every directory is listed by one fork/join task, which forks the tasks of its subdirectories,
+ * so idle threads steal the directories of the busy ones. Each listing borrows one of the sessions,
+ * which are opened when needed up to the parallelism.
+ *
+ * @author Vojko Vladimir
+ */
+class TreeWalk {
+
+    private static final String SEPARATOR = "/";
+    private static final String CURRENT_DIRECTORY = ".";
+    private static final String PARENT_DIRECTORY = "..";
+
+    private final FTPClient origin;
+    private final int maxDepth;
+    private final Predicate<RemoteFile> filter;
+    private final RemoteFileVisitor visitor;
+    private final int parallelism;
+    private final BlockingQueue<FTPClient> idle = new LinkedBlockingQueue<FTPClient>();
+    private final List<FTPClient> opened = new ArrayList<FTPClient>();
+    private volatile boolean terminated = false;
+
+    TreeWalk(FTPClient origin, int maxDepth, Predicate<RemoteFile> filter, RemoteFileVisitor visitor,
+             int parallelism) {
+        this.origin = origin;
+        this.maxDepth = maxDepth;
+        this.filter = filter;
+        this.visitor = visitor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Walk the tree. The origin client is used as one of the sessions, other sessions are closed at the end.
+     *
+     * @param root absolute path of the root directory.
+     */
+    void run(String root) {
+        idle.add(origin);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root, 0));
+        } finally {
+            pool.shutdownNow();
+            synchronized (opened) {
+                for (FTPClient session : opened) {
+                    try {
+                        session.disconnect();
+                    } catch (IOException ignored) {
+                        // The session is thrown away anyway.
+                    }
+                }
+            }
+        }
+    }
+
+    private List<RemoteFile> list(String path) throws IOException, FTPException, InterruptedException {
+        FTPClient session = borrow();
+        try {
+            return session.getFilesList(path);
+        } catch (IOException e) {
+            reconnectQuietly(session);
+            throw e;
+        } finally {
+            idle.add(session);
+        }
+    }
+
+    /**
+     * Take idle session, or open the new one if the parallelism allows.
+     * If the new session can't be opened, waits for the idle one.
+     */
+    private FTPClient borrow() throws InterruptedException {
+        FTPClient session = idle.poll();
+        if (session != null) {
+            return session;
+        }
+
+        boolean open;
+        synchronized (opened) {
+            open = opened.size() + 1 < parallelism;
+            if (open) {
+                opened.add(null);
+            }
+        }
+        if (open) {
+            try {
+                session = origin.newSession();
+            } catch (IOException ignored) {
+            } catch (FTPException ignored) {
+            }
+            synchronized (opened) {
+                opened.remove(null);
+                if (session != null) {
+                    opened.add(session);
+                    return session;
+                }
+            }
+        }
+        return idle.take();
+    }
+
+    private static void reconnectQuietly(FTPClient session) {
+        try {
+            session.reconnect();
+        } catch (IOException ignored) {
+        } catch (FTPException ignored) {
+        }
+    }
+
+    private static String child(String directory, String name) {
+        return directory.endsWith(SEPARATOR) ? directory + name : directory + SEPARATOR + name;
+    }
+
+    /**
+     * List one directory, visit its entries and walk its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveAction {
+
+        private final String path;
+        private final int depth;
+
+        DirectoryTask(String path, int depth) {
+            this.path = path;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (terminated) {
+                return;
+            }
+
+            List<RemoteFile> files;
+            try {
+                files = list(path);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            } catch (FTPException e) {
+                failed(e);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminated = true;
+                return;
+            }
+
+            List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+            for (RemoteFile file : files) {
+                if (terminated) {
+                    return;
+                }
+                String name = file.getName();
+                if (name.equals(CURRENT_DIRECTORY) || name.equals(PARENT_DIRECTORY) || !filter.test(file)) {
+                    continue;
+                }
+
+                String filePath = child(path, name);
+                FileVisitResult result;
+                if (RemoteFile.TYPE_DIRECTORY.equals(file.getType())) {
+                    result = visitor.preVisitDirectory(filePath, file);
+                    if (result == FileVisitResult.CONTINUE && depth + 1 < maxDepth) {
+                        subdirectories.add(new DirectoryTask(filePath, depth + 1));
+                    }
+                } else {
+                    result = visitor.visitFile(filePath, file);
+                }
+
+                if (result == FileVisitResult.TERMINATE) {
+                    terminated = true;
+                    return;
+                }
+                if (result == FileVisitResult.SKIP_SIBLINGS) {
+                    break;
+                }
+            }
+
+            invokeAll(subdirectories);
+        }
+
+        private void failed(Exception e) {
+            if (visitor.visitDirectoryFailed(path, e) == FileVisitResult.TERMINATE) {
+                terminated = true;
+            }
+        }
+    }
+}
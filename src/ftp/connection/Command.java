@@ -9,6 +9,8 @@ public interface Command {
     String USER = "USER ";
     String PASS = "PASS ";
     String PASSIVE = "PASV";
+    String TYPE = "TYPE ";
+    String MODE = "MODE ";
     String PRINT_WORKING_DIRECTORY = "PWD";
     String CHANGE_WORKING_DIRECTORY = "CWD ";
     String CHANGE_TO_PARENT_DIRECTORY = "CDUP";
@@ -19,5 +21,17 @@ public interface Command {
     String RENAME_TO = "RNTO ";
     String RETRIEVE = "RETR ";
     String STORE = "STOR ";
+    String APPEND = "APPE ";
     String DELETE = "DELE ";
+    String SIZE = "SIZE ";
+    String MODIFICATION_TIME = "MDTM ";
+    String NOOP = "NOOP";
+    String QUIT = "QUIT";
+    String RESTART = "REST ";
+    String SITE = "SITE ";
+    String FEATURES = "FEAT";
+    String OPTIONS = "OPTS ";
+    String MACHINE_LIST_DIRECTORY = "MLSD";
+    String MACHINE_LIST = "MLST";
+    String HASH = "HASH ";
 }
@@ -0,0 +1,113 @@
+package ftp.connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encoder of the FTP commands into the raw bytes of the control connection.
+ * Commands are appended to the reusable buffer, terminated by CRLF, and written by one call, so several
+ * pipelined commands are sent together. ASCII characters are copied directly, the rest of the command
+ * after the first non-ASCII character is encoded by the charset.
+ *
+ * @author Vojko Vladimir
+ */
+public class CommandEncoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private final CharsetEncoder encoder;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length = 0;
+
+    /**
+     * Create encoder.
+     *
+     * @param charset charset of the commands.
+     */
+    public CommandEncoder(Charset charset) {
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Append the command with the argument, followed by CRLF.
+     *
+     * @param command  command, with the trailing space if it has an argument (e.g., {@link Command#DELETE}).
+     * @param argument argument of the command, or null.
+     */
+    public void append(String command, String argument) {
+        append(command);
+        if (argument != null) {
+            append(argument);
+        }
+        ensureCapacity(2);
+        buffer[length++] = '\r';
+        buffer[length++] = '\n';
+    }
+
+    /**
+     * Write all appended commands and clear the buffer.
+     *
+     * @param out stream of the control connection.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void writeTo(OutputStream out)
+            throws IOException {
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+        } finally {
+            length = 0;
+        }
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    private void append(String text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                encode(text, i);
+                return;
+            }
+            buffer[length++] = (byte) c;
+        }
+    }
+
+    private void encode(String text, int start) {
+        CharBuffer in = CharBuffer.wrap(text, start, text.length());
+        encoder.reset();
+        boolean flushing = false;
+        while (true) {
+            ByteBuffer out = ByteBuffer.wrap(buffer, length, buffer.length - length);
+            CoderResult result = flushing ? encoder.flush(out) : encoder.encode(in, out, true);
+            length = out.position();
+            if (result.isOverflow()) {
+                ensureCapacity(Math.max(16, in.remaining() * 4));
+            } else if (flushing) {
+                return;
+            } else {
+                flushing = true;
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
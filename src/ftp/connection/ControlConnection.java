@@ -1,39 +1,108 @@
 package ftp.connection;
 
 import ftp.Debugger;
+import ftp.TraceEvent;
 import ftp.exception.NeedAccountException;
 import ftp.exception.NoConnectionException;
 import ftp.exception.NotLoggedInException;
 import ftp.exception.ServiceUnavailableException;
+import ftp.metrics.MetricsListener;
 
-import java.io.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Mange control connection with the FTP server.
  * Execute commands and receive replies.
+ * Commands are encoded into the reusable buffer by {@link CommandEncoder} and replies are decoded from the raw
+ * bytes by {@link ReplyDecoder}, so the commands and replies do not pass through readers and writers.
+ * <p>
+ * Replies are read by the background thread of the connection and matched in order to the commands
+ * waiting for them. Replies that nobody waits for any more are dropped, and the unsolicited "421 Service not
+ * available" or the end of the stream marks the connection closed as soon as they arrive, so commands
+ * are sent without checking the socket first.
+ * <p>
+ * The connection can be kept alive by {@link #keepAlive(long, long)}, which sends NOOP whose reply is dropped
+ * by the reader, also while the data transfer is in progress, and samples the round-trip time of the channel.
  *
  * @author Vojko Vladimir
  */
 public class ControlConnection {
 
-    private static final String DEBUG_TAG = "CONTROL";
-    private static final String OPEN = "OPEN";
-    private static final String CLOSE = "CLOSE";
-    private static final String LOGIN = "LOGIN";
-    private static final String REPLY = "REPLY: ";
-    private static final String RESTORE_CONNECTION = "RESTORE_CONNECTION";
-    private static final String SEND_COMMAND = "SEND_COMMAND: ";
+    /**
+     * State of the control connection protocol.
+     */
+    public enum State {
+        /**
+         * There is no connection to the server.
+         */
+        CLOSED,
+        /**
+         * No command waits for the reply.
+         */
+        READY,
+        /**
+         * Commands are sent and wait for their replies.
+         */
+        AWAITING_REPLY,
+        /**
+         * The oldest command got the preliminary reply and waits for the final one (e.g., after the data transfer).
+         */
+        IN_PROGRESS
+    }
+
+    private static final String CONNECTION_CLOSED_BY_SERVER = "Connection closed by server";
+    private static final String READER_THREAD_NAME = "ControlConnection-";
+    private static final String NO_PREFIX = "";
+    private static final int READ_BUFFER_SIZE = 4096;
+    private static final int MAX_SPARE_REPLIES = 16;
+    private static final int RTT_SMOOTHING_SHIFT = 3;
+
+    /**
+     * What to do with the final reply of the sent command.
+     */
+    private enum Expected {
+        /**
+         * The caller reads the reply.
+         */
+        READ,
+        /**
+         * Nobody reads the reply any more.
+         */
+        DROP,
+        /**
+         * The reply answers the keepalive NOOP.
+         */
+        KEEP_ALIVE
+    }
 
     boolean connectionEstablished = false;
-    boolean connected = false;
+    volatile boolean connected = false;
+    private final Object writeLock = new Object();
     private Socket socket = null;
-    private PrintWriter writer = null;
-    private BufferedReader reader = null;
+    private OutputStream out = null;
+    private CommandEncoder encoder = null;
+    private volatile ReplyReader reader = null;
+    private volatile long lastActivity = System.nanoTime();
+    private volatile long roundTripTime = -1;
+    private volatile MetricsListener metrics;
+    private volatile int generation = 0;
     private String host = null;
     private int port = -1;
     private String user = null;
     private String pass = null;
+    private Charset charset = StandardCharsets.UTF_8;
     private Debugger debugger;
 
     public ControlConnection(Debugger debugger) {
@@ -50,20 +119,27 @@ public class ControlConnection {
      */
     public void open(String host, int port)
             throws IOException, ServiceUnavailableException {
-        if (connected) {
+        if (socket != null) {
             close();
         }
         this.host = host;
         this.port = port;
 
-        debugger.writeMassage(DEBUG_TAG, OPEN + " " + host + ":" + port);
+        debugger.trace(TraceEvent.Type.OPEN, host, port);
 
+        long started = System.nanoTime();
         socket = new Socket(host, port);
-        writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        Reply reply = readReply();
+        out = socket.getOutputStream();
+        encoder = new CommandEncoder(charset);
+        reader = new ReplyReader(socket, new ReplyDecoder(charset));
+        // The greeting is the reply to the connection itself.
+        reader.expect(Expected.READ);
+        Thread thread = new Thread(reader, READER_THREAD_NAME + host + ":" + port);
+        thread.setDaemon(true);
+        thread.start();
+        connected = true;
 
-        debugger.writeMassage(DEBUG_TAG, REPLY + reply);
+        Reply reply = readReply();
 
         switch (reply.code) {
             case ReplyCode.SERVICE_READY_IN_NNN_MINUTES:
@@ -71,7 +147,60 @@ public class ControlConnection {
                 close();
                 throw new ServiceUnavailableException(reply.text);
         }
-        connected = true;
+        generation++;
+
+        MetricsListener metrics = this.metrics;
+        if (metrics != null) {
+            metrics.onConnected(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Establish control connection to the same FTP server as the origin connection
+     * and login with the same user.
+     *
+     * @param origin logged in control connection.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public void open(ControlConnection origin)
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        if (!origin.connectionEstablished) {
+            throw new NoConnectionException();
+        }
+        charset = origin.charset;
+        open(origin.host, origin.port);
+        login(origin.user, origin.pass);
+    }
+
+    /**
+     * Set charset of commands and replies. Takes effect on the next connection.
+     *
+     * @param charset charset of the control connection.
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Set listener of the connection and command latencies.
+     *
+     * @param metrics metrics listener, or null.
+     */
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metrics;
     }
 
     /**
@@ -81,13 +210,17 @@ public class ControlConnection {
      */
     public void close()
             throws IOException {
-        debugger.writeMassage(DEBUG_TAG, CLOSE);
+        debugger.trace(TraceEvent.Type.CLOSE);
+
+        connected = false;
 
-        if (socket != null && socket.isConnected()) {
+        if (socket != null) {
+            reader.closing = true;
             socket.close();
             socket = null;
-            writer = null;
-            reader = null;
+            synchronized (writeLock) {
+                out = null;
+            }
         }
     }
 
@@ -106,18 +239,16 @@ public class ControlConnection {
             throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
             NeedAccountException {
 
-        debugger.writeMassage(DEBUG_TAG, LOGIN);
+        debugger.trace(TraceEvent.Type.LOGIN);
 
         if (connected) {
             this.user = user;
             this.pass = pass;
-            writer.print(Command.USER + user + "\r\n");
-            writer.flush();
+            debugger.trace(TraceEvent.Type.SEND_COMMAND, Command.USER, user);
+            write(Command.USER, user);
             Reply reply;
             reply = readReply();
 
-            debugger.writeMassage(DEBUG_TAG, REPLY + reply);
-
             switch (reply.code) {
                 case ReplyCode.SERVICE_UNAVAILABLE:
                     close();
@@ -128,12 +259,10 @@ public class ControlConnection {
                     throw new NeedAccountException(reply.text);
             }
 
-            writer.print(Command.PASS + pass + "\r\n");
-            writer.flush();
+            debugger.trace(TraceEvent.Type.SEND_COMMAND, Command.PASS, null);
+            write(Command.PASS, pass);
             reply = readReply();
 
-            debugger.writeMassage(DEBUG_TAG, REPLY + reply);
-
             switch (reply.code) {
                 case ReplyCode.SERVICE_UNAVAILABLE:
                     close();
@@ -147,19 +276,118 @@ public class ControlConnection {
         }
     }
 
-    public boolean isConnected() {
+    /**
+     * Log out from the server and close control connection.
+     * The connection will not be restored automatically after this call.
+     *
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void quit()
+            throws IOException {
+        debugger.trace(TraceEvent.Type.QUIT);
+
+        connectionEstablished = false;
         try {
-            while (hasUnreadReply()) {
+            if (connected) {
+                reader.discardUnread();
+                write(Command.QUIT, null);
                 readReply();
             }
-        } catch (IOException e) {
-            connected = false;
+        } catch (IOException ignored) {
+            // The connection is closed anyway.
+        } finally {
+            close();
         }
+    }
+
+    /**
+     * Check whether the connection is open. The connection closed by the server is noticed by the reader
+     * of the replies as soon as the server closes it, without reading the socket here.
+     *
+     * @return true if the connection is open.
+     */
+    public boolean isConnected() {
         return connected;
     }
 
     /**
-     * Restore the connection if the time is up.
+     * Get the number of the connection, increased every time the connection is opened, also when it is
+     * restored by the command sent after the connection was lost. The server starts every connection
+     * with its defaults, so the state negotiated on the previous connection (e.g., TYPE or MODE)
+     * is lost when the number changes.
+     *
+     * @return number of the connection.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the state of the control connection protocol.
+     *
+     * @return current state.
+     */
+    public State getState() {
+        ReplyReader reader = this.reader;
+        if (!connected || reader == null) {
+            return State.CLOSED;
+        }
+        return reader.getState();
+    }
+
+    /**
+     * Send NOOP if nothing was sent or received for the interval. The reply is not returned to anybody:
+     * the reader drops it and samples the round-trip time, if the connection was otherwise idle.
+     * NOOP is also sent while the data transfer is in progress, so the server does not time out the control
+     * connection during the long transfer. If the NOOP sent on the idle connection is not answered within
+     * the timeout, the connection is closed as broken, to be restored by the next command.
+     * Safe to call from another thread than the one that sends the commands.
+     *
+     * @param interval time in milliseconds without any traffic after which NOOP is sent.
+     * @param timeout  time in milliseconds to wait for the reply to NOOP on the idle connection.
+     * @return true if NOOP was sent.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public boolean keepAlive(long interval, long timeout)
+            throws IOException {
+        ReplyReader reader = this.reader;
+        if (!connected || reader == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (reader.isKeepAliveExpired(now, TimeUnit.MILLISECONDS.toNanos(timeout))) {
+            debugger.trace(TraceEvent.Type.KEEP_ALIVE_TIMEOUT);
+            reader.abort();
+            return false;
+        }
+        if (now - lastActivity < TimeUnit.MILLISECONDS.toNanos(interval)) {
+            return false;
+        }
+        synchronized (writeLock) {
+            if (out == null || this.reader != reader || !reader.expectKeepAlive(now)) {
+                return false;
+            }
+            debugger.trace(TraceEvent.Type.KEEP_ALIVE);
+            encoder.append(Command.NOOP, null);
+            encoder.writeTo(out);
+            lastActivity = now;
+        }
+        return true;
+    }
+
+    /**
+     * Get the round-trip time of the control connection, smoothed over the samples taken by
+     * {@link #keepAlive(long, long)} on the idle connection.
+     *
+     * @return round-trip time in nanoseconds, or -1 if not sampled yet.
+     */
+    public long getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * Restore the connection if the time is up or the connection is broken.
+     * Opens new connection to the same server and login with the same user.
      *
      * @throws java.io.IOException                       If an I/O error occurs.
      * @throws ftp.exception.NoConnectionException       If there is no connection.
@@ -167,43 +395,64 @@ public class ControlConnection {
      * @throws ftp.exception.NotLoggedInException        If user not logged in.
      * @throws ftp.exception.NeedAccountException        If user need account for action.
      */
-    private void restoreConnection()
+    public void restoreConnection()
             throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
             NeedAccountException {
-        debugger.writeMassage(DEBUG_TAG, RESTORE_CONNECTION);
+        debugger.trace(TraceEvent.Type.RESTORE_CONNECTION);
 
         open(host, port);
         login(user, pass);
+
+        MetricsListener metrics = this.metrics;
+        if (metrics != null) {
+            metrics.onReconnected();
+        }
+    }
+
+    /**
+     * Restore the connection now if it was lost, instead of by the next command.
+     * Does nothing if the connection is open, or was never established.
+     *
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public void restoreIfLost()
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        if (!connected && connectionEstablished) {
+            restoreConnection();
+        }
     }
 
     /**
      * Reade reply from the server.
+     * Waits for the next reply to the already sent command (e.g., the final reply after the data transfer).
      *
      * @return server reply.
      * @throws IOException If an I/O error occurs.
      */
     public Reply readReply()
             throws IOException {
-        Reply reply = new Reply();
-        String replyText = reader.readLine();
-        reply.code = Integer.parseInt(replyText.substring(0, 3));
-
-        if (replyText.charAt(3) == '-') {
-            StringBuilder replyTextBuilder = new StringBuilder(replyText.substring(4));
-            while (!(replyText = reader.readLine()).contains(reply.code + " ")) {
-                replyTextBuilder.append("\n").append(replyText);
-            }
-            reply.text = replyTextBuilder.toString();
-        } else {
-            reply.text = replyText.substring(3);
-        }
+        return readReply(null);
+    }
 
-        if (reply.code == ReplyCode.SERVICE_UNAVAILABLE) {
-            connected = false;
-            socket.close();
+    /**
+     * Reade reply from the server into the given reply object.
+     *
+     * @param reply reply object to reuse, or null to create the new one.
+     * @return server reply.
+     * @throws IOException If an I/O error occurs.
+     */
+    public Reply readReply(Reply reply)
+            throws IOException {
+        ReplyReader reader = this.reader;
+        if (reader == null) {
+            throw new EOFException(CONNECTION_CLOSED_BY_SERVER);
         }
-
-        return reply;
+        return reader.take(reply);
     }
 
     /**
@@ -220,43 +469,414 @@ public class ControlConnection {
     public Reply sendCommand(String command)
             throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
             NeedAccountException {
-        debugger.writeMassage(DEBUG_TAG, SEND_COMMAND + command);
+        return sendCommand(command, null, null);
+    }
 
-        if (connected) {
-            if (hasUnreadReply()) {
-                Reply reply = readReply();
-                if (reply.code == ReplyCode.SERVICE_UNAVAILABLE) {
-                    if (connectionEstablished) {
-                        restoreConnection();
-                        return sendCommand(command);
-                    } else {
-                        throw new ServiceUnavailableException(reply.text);
+    /**
+     * Send command with the argument to the FTP server.
+     * The command and the argument are encoded one after another, without building the whole command string.
+     *
+     * @param command  command to send, with the trailing space (e.g., {@link Command#DELETE}).
+     * @param argument argument of the command.
+     * @return server reply.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public Reply sendCommand(String command, String argument)
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        return sendCommand(command, argument, null);
+    }
+
+    /**
+     * Send command with the argument to the FTP server and read the reply into the given reply object.
+     * Replies of the previous commands that are not read yet are dropped.
+     *
+     * @param command  command to send.
+     * @param argument argument of the command, or null.
+     * @param reply    reply object to reuse, or null to create the new one.
+     * @return server reply.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public Reply sendCommand(String command, String argument, Reply reply)
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        ensureReady();
+        debugger.trace(TraceEvent.Type.SEND_COMMAND, command, argument);
+        MetricsListener metrics = this.metrics;
+        long sentAt = (metrics != null) ? System.nanoTime() : 0;
+        write(command, argument);
+        reply = readReply(reply);
+
+        if (metrics != null) {
+            metrics.onCommand(commandName(command, argument), reply.code, System.nanoTime() - sentAt);
+        }
+
+        return reply;
+    }
+
+    /**
+     * Send several commands to the FTP server without waiting for the reply to every command.
+     * Up to window commands are sent ahead of their replies, replies are matched to the commands in order.
+     * Commands must not open data connection.
+     *
+     * @param commands commands to send.
+     * @param window   maximum amount of commands sent but not replied yet.
+     * @return server replies, in the same order as commands.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> sendCommands(List<String> commands, int window)
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        return sendCommands(NO_PREFIX, commands, window);
+    }
+
+    /**
+     * Send the same command with several arguments to the FTP server in the pipelined mode.
+     * Commands are encoded straight from the command and the arguments, without building the command strings.
+     *
+     * @param command   command to send, with the trailing space (e.g., {@link Command#DELETE}).
+     * @param arguments arguments of the commands.
+     * @param window    maximum amount of commands sent but not replied yet.
+     * @return server replies, in the same order as arguments.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public List<Reply> sendCommands(String command, List<String> arguments, int window)
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        if (window < 1) {
+            throw new IllegalArgumentException();
+        }
+        ensureReady();
+        debugger.trace(TraceEvent.Type.SEND_COMMANDS, arguments.size());
+
+        MetricsListener metrics = this.metrics;
+        long[] sentAt = (metrics != null) ? new long[window] : null;
+        List<Reply> replies = new ArrayList<Reply>(arguments.size());
+        int sent = 0;
+
+        while (replies.size() < arguments.size()) {
+            if (sent < arguments.size() && sent - replies.size() < window) {
+                synchronized (writeLock) {
+                    int batch = sent;
+                    while (sent < arguments.size() && sent - replies.size() < window) {
+                        String argument = arguments.get(sent++);
+                        debugger.trace(TraceEvent.Type.SEND_COMMAND, command, argument);
+                        reader.expect(Expected.READ);
+                        encoder.append(command, argument);
+                    }
+                    encoder.writeTo(out);
+                    lastActivity = System.nanoTime();
+                    if (sentAt != null) {
+                        for (int i = batch; i < sent; i++) {
+                            sentAt[i % window] = lastActivity;
+                        }
                     }
-                } else {
-                    return sendCommand(command);
                 }
-            } else {
-                writer.print(command + "\r\n");
-                writer.flush();
+            }
 
-                Reply reply = readReply();
+            Reply reply = readReply();
 
-                debugger.writeMassage(DEBUG_TAG, REPLY + reply);
+            if (sentAt != null) {
+                metrics.onCommand(commandName(command, arguments.get(replies.size())), reply.code,
+                        System.nanoTime() - sentAt[replies.size() % window]);
+            }
 
-                return reply;
+            if (reply.code == ReplyCode.SERVICE_UNAVAILABLE) {
+                throw new ServiceUnavailableException(reply.text);
             }
-        } else {
+            replies.add(reply);
+        }
+
+        return replies;
+    }
+
+    /**
+     * Make sure the connection is open before sending the command, restoring it if the server closed it,
+     * and drop the replies of the previous commands that nobody reads any more.
+     */
+    private void ensureReady()
+            throws IOException, ServiceUnavailableException, NoConnectionException, NotLoggedInException,
+            NeedAccountException {
+        if (!connected) {
             if (connectionEstablished) {
                 restoreConnection();
-                return sendCommand(command);
             } else {
                 throw new NoConnectionException();
             }
         }
+        reader.discardUnread();
+    }
+
+    /**
+     * Send the command whose reply will be read by the caller.
+     */
+    private void write(String command, String argument) throws IOException {
+        synchronized (writeLock) {
+            if (out == null) {
+                throw new EOFException(CONNECTION_CLOSED_BY_SERVER);
+            }
+            reader.expect(Expected.READ);
+            encoder.append(command, argument);
+            encoder.writeTo(out);
+            lastActivity = System.nanoTime();
+        }
     }
 
-    private boolean hasUnreadReply() throws IOException {
-        return socket.getInputStream().available() > 0;
+    /**
+     * Get the command without the argument for the metrics. Commands sent with the separate argument are
+     * constants, whole commands are cut at the first space.
+     */
+    private static String commandName(String command, String argument) {
+        if (argument == null) {
+            int space = command.indexOf(' ');
+            return (space < 0) ? command : command.substring(0, space);
+        }
+        return command.isEmpty() ? commandName(argument, null) : command;
+    }
+
+    /**
+     * Reader of the replies of one socket.
+     * Every sent command is expected to get one final reply, optionally preceded by preliminary (1yz) replies.
+     * Replies are matched to the expected commands in order and handed to the waiting caller, or dropped
+     * if the caller does not wait for them any more. Replies that arrive when no command is expected are
+     * unsolicited, of them only "421 Service not available" matters, which closes the connection.
+     * Some servers answer the keepalive NOOP sent during the data transfer before the transfer ends, so
+     * "200" received while the transfer is in progress is taken as the reply to the keepalive.
+     */
+    private final class ReplyReader implements Runnable {
+        private final Socket socket;
+        private final InputStream in;
+        private final ReplyDecoder decoder;
+        private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        private final ByteBuffer received = ByteBuffer.wrap(readBuffer, 0, 0);
+        /**
+         * Commands waiting for the final reply, in order.
+         */
+        private final ArrayDeque<Expected> expected = new ArrayDeque<Expected>();
+        private final ArrayDeque<Reply> unread = new ArrayDeque<Reply>();
+        private final ArrayDeque<Reply> spare = new ArrayDeque<Reply>();
+        private boolean preliminary = false;
+        private boolean closedByServer = false;
+        private int keepAlivesPending = 0;
+        private boolean keepAliveIdle = false;
+        private long keepAliveSentAt;
+        private IOException failure = null;
+        volatile boolean closing = false;
+
+        ReplyReader(Socket socket, ReplyDecoder decoder) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Reply reply;
+                    Reply reused = takeSpare();
+                    while ((reply = decoder.decode(received, reused)) == null) {
+                        int count = in.read(readBuffer);
+                        if (count < 0) {
+                            throw new EOFException(CONNECTION_CLOSED_BY_SERVER);
+                        }
+                        received.clear().limit(count);
+                    }
+                    dispatch(reply);
+                }
+            } catch (IOException e) {
+                finish(e);
+            }
+        }
+
+        synchronized void expect(Expected reply) {
+            expected.addLast(reply);
+        }
+
+        /**
+         * Expect the reply to the keepalive NOOP. On the idle connection only one keepalive is sent at a time,
+         * during the transfer the server may answer them only after the transfer, so they are not limited.
+         * Nothing is sent while the caller waits for the reply, which keeps the connection busy anyway.
+         *
+         * @return true if the keepalive should be sent.
+         */
+        synchronized boolean expectKeepAlive(long now) {
+            if (failure != null) {
+                return false;
+            }
+            if (expected.isEmpty()) {
+                keepAliveIdle = true;
+                keepAliveSentAt = now;
+            } else if (!preliminary || keepAliveIdle) {
+                return false;
+            }
+            keepAlivesPending++;
+            expected.addLast(Expected.KEEP_ALIVE);
+            return true;
+        }
+
+        synchronized boolean isKeepAliveExpired(long now, long timeout) {
+            return keepAliveIdle && now - keepAliveSentAt > timeout;
+        }
+
+        /**
+         * Close the socket, the reader finishes as if the server closed the connection.
+         */
+        void abort() {
+            closing = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        synchronized State getState() {
+            if (expected.isEmpty()) {
+                return State.READY;
+            }
+            return preliminary ? State.IN_PROGRESS : State.AWAITING_REPLY;
+        }
+
+        /**
+         * Drop the replies that are received, but not read, and the replies still expected by the caller.
+         */
+        synchronized void discardUnread() {
+            while (!unread.isEmpty()) {
+                recycle(unread.pollFirst());
+            }
+            int count = expected.size();
+            for (int i = 0; i < count; i++) {
+                Expected reply = expected.pollFirst();
+                expected.addLast(reply == Expected.READ ? Expected.DROP : reply);
+            }
+        }
+
+        /**
+         * Wait for the next reply read by the caller.
+         */
+        synchronized Reply take(Reply reply) throws IOException {
+            try {
+                while (unread.isEmpty()) {
+                    if (failure != null) {
+                        if (failure instanceof EOFException) {
+                            throw new EOFException(CONNECTION_CLOSED_BY_SERVER);
+                        }
+                        throw new IOException(failure.getMessage(), failure);
+                    }
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            Reply next = unread.pollFirst();
+            if (reply == null) {
+                return next;
+            }
+            reply.code = next.code;
+            reply.text = next.text;
+            recycle(next);
+            return reply;
+        }
+
+        private synchronized Reply takeSpare() {
+            return spare.pollFirst();
+        }
+
+        private void recycle(Reply reply) {
+            if (spare.size() < MAX_SPARE_REPLIES) {
+                reply.text = null;
+                spare.addLast(reply);
+            }
+        }
+
+        private synchronized void dispatch(Reply reply) throws IOException {
+            boolean unavailable = reply.code == ReplyCode.SERVICE_UNAVAILABLE;
+            if (unavailable) {
+                closedByServer = true;
+                if (reader == this) {
+                    connected = false;
+                }
+            }
+
+            if (expected.isEmpty()) {
+                debugger.trace(TraceEvent.Type.UNSOLICITED_REPLY, reply.code, reply.text);
+                recycle(reply);
+            } else {
+                debugger.trace(TraceEvent.Type.REPLY, reply.code, reply.text);
+                Expected head;
+                if (reply.code < 200) {
+                    preliminary = true;
+                    head = expected.peekFirst();
+                } else if (preliminary && keepAlivesPending > 0 && reply.code == ReplyCode.COMMAND_OK
+                        && expected.peekFirst() != Expected.KEEP_ALIVE) {
+                    expected.removeFirstOccurrence(Expected.KEEP_ALIVE);
+                    head = Expected.KEEP_ALIVE;
+                } else {
+                    preliminary = false;
+                    head = expected.pollFirst();
+                }
+                if (head == Expected.READ) {
+                    unread.addLast(reply);
+                    notifyAll();
+                } else {
+                    if (head == Expected.KEEP_ALIVE) {
+                        onKeepAliveReply();
+                    }
+                    recycle(reply);
+                }
+            }
+            lastActivity = System.nanoTime();
+
+            if (unavailable) {
+                socket.close();
+            }
+        }
+
+        private void onKeepAliveReply() {
+            if (keepAliveIdle) {
+                long sample = System.nanoTime() - keepAliveSentAt;
+                long smoothed = roundTripTime;
+                roundTripTime = (smoothed < 0) ? sample : smoothed + ((sample - smoothed) >> RTT_SMOOTHING_SHIFT);
+                keepAliveIdle = false;
+            }
+            keepAlivesPending--;
+        }
+
+        private synchronized void finish(IOException e) {
+            if (reader == this) {
+                connected = false;
+            }
+            failure = (closing || closedByServer) ? new EOFException(CONNECTION_CLOSED_BY_SERVER) : e;
+            if (!closing && debugger.isEnabled()) {
+                debugger.trace(TraceEvent.Type.CONNECTION_LOST, String.valueOf(failure));
+            }
+            expected.clear();
+            preliminary = false;
+            keepAlivesPending = 0;
+            keepAliveIdle = false;
+            notifyAll();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
 }
@@ -1,10 +1,22 @@
 package ftp.connection;
 
 import ftp.Debugger;
+import ftp.TraceEvent;
+import ftp.metrics.MetricsListener;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Data connection with server.
@@ -13,24 +25,77 @@ import java.util.ArrayList;
  */
 public class DataConnection {
 
-    private static final int BLOCK_SIZE = 1024;
-    private static final String DEBUG_TAG = "DATA";
-    private static final String OPEN = "OPEN";
-    private static final String CLOSE = "CLOSE";
-    private static final String READ_LINES = "READ_LINES";
-    private static final String GET_BYTES = "GET_BYTES: ";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long MAPPED_REGION_SIZE = 64 * 1024 * 1024;
     private static final String DATA_STREAM_ENDED_PREMATURELY = "Data stream ended prematurely";
-    private static final String WRITE_BYTES = "WRITE_BYTES: ";
+    private static final String FILE_ENDED_PREMATURELY = "File ended prematurely";
 
+    private SocketChannel channel;
     private Socket passive;
     private InputStream dataIn;
     private OutputStream dataOut;
     private Debugger debugger;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+    private ByteBuffer directBuffer;
+    private Hasher hasher;
+    private boolean compressed = false;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Deflater deflater;
+    private Inflater inflater;
+    private MetricsListener metrics;
+    private long openedAt;
+    private long bytesReceived;
+    private long bytesSent;
 
     public DataConnection(Debugger debugger) {
         this.debugger = debugger;
     }
 
+    /**
+     * Set hasher of the transferred bytes. While it is set, every byte of the file read or written
+     * by this connection is added to the hash as it passes through, and
+     * {@link #transferFrom(java.nio.channels.FileChannel, long, long, OnBytesWriteListener)}
+     * copies the file through the buffer instead of sending it by the operating system.
+     *
+     * @param hasher hasher of the transferred bytes, or null to stop hashing.
+     */
+    public void setHasher(Hasher hasher) {
+        this.hasher = hasher;
+    }
+
+    /**
+     * Set listener of the data connection setup times and transfer throughput.
+     *
+     * @param metrics metrics listener, or null.
+     */
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Set whether the data of the next opened connections is compressed by deflate (MODE Z).
+     * Compressed data is inflated and deflated on the fly by the streams of the connection,
+     * so the methods reading the socket channel directly ({@link #readToMapped}, {@link #readToFile})
+     * must not be used, and {@link #transferFrom} copies the file through the buffer.
+     *
+     * @param compressed true for MODE Z, false for stream mode.
+     * @param level      deflate level of the sent data, from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public void setCompression(boolean compressed, int level) {
+        this.compressed = compressed;
+        this.compressionLevel = level;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
     /**
      * Open passive data connection with FTP server.
      *
@@ -40,10 +105,54 @@ public class DataConnection {
      */
     public void open(String host, int port)
             throws IOException {
-        debugger.writeMassage(DEBUG_TAG, OPEN + " " + host + ":" + port);
-        passive = new Socket(host, port);
+        open(host, port, System.nanoTime());
+    }
+
+    /**
+     * Open passive data connection with FTP server.
+     *
+     * @param host        server address.
+     * @param port        server port.
+     * @param requestedAt {@link System#nanoTime()} when the data connection was requested (before PASV),
+     *                    the setup time is reported to the metrics listener from this moment.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void open(String host, int port, long requestedAt)
+            throws IOException {
+        close();
+        debugger.trace(TraceEvent.Type.DATA_OPEN, host, port);
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        passive = channel.socket();
+        openedAt = System.nanoTime();
+        bytesReceived = 0;
+        bytesSent = 0;
+        if (metrics != null) {
+            metrics.onDataConnectionOpened(openedAt - requestedAt);
+        }
         dataIn = passive.getInputStream();
         dataOut = passive.getOutputStream();
+
+        if (compressed) {
+            if (inflater == null) {
+                inflater = new Inflater();
+                deflater = new Deflater();
+            }
+            inflater.reset();
+            deflater.reset();
+            deflater.setLevel(compressionLevel);
+            dataIn = new InflaterInputStream(dataIn, inflater, BUFFER_SIZE);
+            dataOut = new DeflaterOutputStream(dataOut, deflater, BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Write the rest of the compressed data, and flush the data output stream.
+     */
+    private void finishOutput() throws IOException {
+        if (dataOut instanceof DeflaterOutputStream) {
+            ((DeflaterOutputStream) dataOut).finish();
+        }
+        dataOut.flush();
     }
 
     /**
@@ -52,10 +161,16 @@ public class DataConnection {
      * @throws java.io.IOException If an I/O error occurs.
      */
     public void close() throws IOException {
-        debugger.writeMassage(DEBUG_TAG, CLOSE);
+        debugger.trace(TraceEvent.Type.DATA_CLOSE);
+        if (passive != null && metrics != null && (bytesReceived > 0 || bytesSent > 0)) {
+            metrics.onDataTransferred(bytesReceived, bytesSent, System.nanoTime() - openedAt);
+        }
+        bytesReceived = 0;
+        bytesSent = 0;
         if (passive != null && passive.isConnected()) {
             passive.close();
             passive = null;
+            channel = null;
             dataIn = null;
             dataOut = null;
         }
@@ -67,7 +182,7 @@ public class DataConnection {
      * @throws java.io.IOException If an I/O error occurs.
      */
     public ArrayList<String> readLines() throws IOException {
-        debugger.writeMassage(DEBUG_TAG, READ_LINES);
+        debugger.trace(TraceEvent.Type.READ_LINES);
         ArrayList<String> lines = new ArrayList<String>();
         BufferedReader reader = new BufferedReader(new InputStreamReader(dataIn));
         String line;
@@ -78,6 +193,32 @@ public class DataConnection {
         return lines;
     }
 
+    /**
+     * Read lines of the text data without decoding them. Empty lines are skipped.
+     *
+     * @param listener line read listener.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public void readLines(OnLineReadListener listener) throws IOException {
+        debugger.trace(TraceEvent.Type.READ_LINES);
+        LineReader reader = new LineReader(dataIn, buffer);
+        while (reader.readLine(listener)) {
+            // Lines are handled by the listener.
+        }
+        close();
+    }
+
+    /**
+     * Get reader to pull the lines of the text data one by one.
+     * The data connection must be closed by the caller.
+     *
+     * @return line reader of the data connection.
+     */
+    public LineReader getLineReader() {
+        debugger.trace(TraceEvent.Type.READ_LINES);
+        return new LineReader(dataIn, buffer);
+    }
+
     /**
      * Read bytes from data stream.
      *
@@ -87,7 +228,7 @@ public class DataConnection {
      * @throws java.io.IOException If an I/O error occurs.
      */
     public byte[] getBytes(int size, OnBytesReadListener listener) throws IOException {
-        debugger.writeMassage(DEBUG_TAG, GET_BYTES + size);
+        debugger.trace(TraceEvent.Type.GET_BYTES, size);
         byte[] bytes = new byte[size];
         int totalRead = 0;
 
@@ -95,21 +236,249 @@ public class DataConnection {
             int bytesRead = dataIn.read(bytes, totalRead, size - totalRead);
 
             if (bytesRead < 0) {
-                debugger.writeMassage(DEBUG_TAG, DATA_STREAM_ENDED_PREMATURELY);
+                debugger.trace(TraceEvent.Type.DATA_ENDED_PREMATURELY);
                 throw new IOException(DATA_STREAM_ENDED_PREMATURELY);
             }
 
+            if (hasher != null) {
+                hasher.update(bytes, totalRead, bytesRead);
+            }
             totalRead += bytesRead;
 
             if (listener != null) {
-                listener.onBytesRead(size, totalRead);
+                listener.onBytesRead((long) size, (long) totalRead);
             }
         }
+        bytesReceived += totalRead;
         close();
 
         return bytes;
     }
 
+    /**
+     * Copy bytes from data stream to the output stream until the end of the data stream.
+     * Bytes are passed through the fixed-size buffer of this connection, so the amount of used memory
+     * does not depend on the size of the transferred data.
+     *
+     * @param out      stream to write the read bytes.
+     * @param size     expected amount of bytes, or -1 if unknown.
+     * @param listener bytes read listener.
+     * @return amount of copied bytes.
+     * @throws java.io.IOException If an I/O error occurs or data stream ended before expected amount of bytes.
+     */
+    public long copyTo(OutputStream out, long size, OnBytesReadListener listener) throws IOException {
+        debugger.trace(TraceEvent.Type.COPY_BYTES, size);
+        long totalRead = 0;
+
+        try {
+            int bytesRead;
+            while ((bytesRead = dataIn.read(buffer)) >= 0) {
+                if (hasher != null) {
+                    hasher.update(buffer, 0, bytesRead);
+                }
+                out.write(buffer, 0, bytesRead);
+                totalRead += bytesRead;
+
+                if (listener != null) {
+                    listener.onBytesRead(size, totalRead);
+                }
+            }
+        } finally {
+            bytesReceived += totalRead;
+            close();
+        }
+        checkSize(size, totalRead);
+
+        return totalRead;
+    }
+
+    /**
+     * Copy bytes from data stream to the channel until the end of the data stream.
+     * Bytes are passed through the fixed-size buffer of this connection, so the amount of used memory
+     * does not depend on the size of the transferred data.
+     *
+     * @param out      channel to write the read bytes.
+     * @param size     expected amount of bytes, or -1 if unknown.
+     * @param listener bytes read listener.
+     * @return amount of copied bytes.
+     * @throws java.io.IOException If an I/O error occurs or data stream ended before expected amount of bytes.
+     */
+    public long copyTo(WritableByteChannel out, long size, OnBytesReadListener listener) throws IOException {
+        debugger.trace(TraceEvent.Type.COPY_BYTES, size);
+        long totalRead = 0;
+
+        try {
+            int bytesRead;
+            while ((bytesRead = dataIn.read(buffer)) >= 0) {
+                if (hasher != null) {
+                    hasher.update(buffer, 0, bytesRead);
+                }
+                byteBuffer.clear().limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    out.write(byteBuffer);
+                }
+                totalRead += bytesRead;
+
+                if (listener != null) {
+                    listener.onBytesRead(size, totalRead);
+                }
+            }
+        } finally {
+            bytesReceived += totalRead;
+            close();
+        }
+        checkSize(size, totalRead);
+
+        return totalRead;
+    }
+
+    /**
+     * Read bytes from data stream directly into the memory mapped file.
+     * The file is preallocated to the expected size before reading, and mapped by regions,
+     * so other processes can map the file while it is being received.
+     * If the data stream ends prematurely, the file is truncated to the amount of read bytes.
+     * If the data stream contains more bytes than expected (the file grew after its size was requested),
+     * the rest is appended to the file without the mapping.
+     *
+     * @param file     file opened for reading and writing.
+     * @param size     expected amount of bytes.
+     * @param listener bytes read listener.
+     * @return amount of read bytes.
+     * @throws java.io.IOException If an I/O error occurs or data stream ended before expected amount of bytes.
+     */
+    public long readToMapped(FileChannel file, long size, OnBytesReadListener listener) throws IOException {
+        debugger.trace(TraceEvent.Type.READ_MAPPED, size);
+        long totalRead = 0;
+
+        try {
+            if (size > 0 && file.size() < size) {
+                file.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+
+            while (totalRead < size) {
+                long regionSize = Math.min(MAPPED_REGION_SIZE, size - totalRead);
+                MappedByteBuffer region = file.map(FileChannel.MapMode.READ_WRITE, totalRead, regionSize);
+
+                while (region.hasRemaining()) {
+                    int bytesRead = channel.read(region);
+
+                    if (bytesRead < 0) {
+                        file.truncate(totalRead);
+                        debugger.trace(TraceEvent.Type.DATA_ENDED_PREMATURELY);
+                        throw new IOException(DATA_STREAM_ENDED_PREMATURELY);
+                    }
+                    if (hasher != null) {
+                        ByteBuffer received = region.duplicate();
+                        received.position(region.position() - bytesRead).limit(region.position());
+                        hasher.update(received);
+                    }
+
+                    totalRead += bytesRead;
+
+                    if (listener != null) {
+                        listener.onBytesRead(size, totalRead);
+                    }
+                }
+            }
+            totalRead = appendRest(file, totalRead, listener);
+        } finally {
+            bytesReceived += totalRead;
+            close();
+        }
+
+        return totalRead;
+    }
+
+    private long appendRest(FileChannel file, long totalRead, OnBytesReadListener listener) throws IOException {
+        if (directBuffer == null) {
+            directBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        while (true) {
+            directBuffer.clear();
+            int bytesRead = channel.read(directBuffer);
+            if (bytesRead < 0) {
+                break;
+            }
+
+            directBuffer.flip();
+            if (hasher != null) {
+                hasher.update(directBuffer.duplicate());
+            }
+            while (directBuffer.hasRemaining()) {
+                file.write(directBuffer, totalRead + directBuffer.position());
+            }
+            totalRead += bytesRead;
+
+            if (listener != null) {
+                listener.onBytesRead(-1L, totalRead);
+            }
+        }
+
+        return totalRead;
+    }
+
+    /**
+     * Read the specified amount of bytes from data stream and write them to the file from the given position.
+     * Reading stops when the amount is reached, even if the data stream contains more bytes,
+     * and the data connection is closed.
+     *
+     * @param file     file to write the read bytes.
+     * @param position position in the file for the first read byte.
+     * @param size     amount of bytes to read.
+     * @param listener bytes read listener.
+     * @return amount of read bytes.
+     * @throws java.io.IOException If an I/O error occurs or data stream ended before expected amount of bytes.
+     */
+    public long readToFile(FileChannel file, long position, long size, OnBytesReadListener listener)
+            throws IOException {
+        debugger.trace(TraceEvent.Type.READ_RANGE, position, size);
+        if (directBuffer == null) {
+            directBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        long totalRead = 0;
+
+        try {
+            while (totalRead < size) {
+                directBuffer.clear();
+                if (size - totalRead < BUFFER_SIZE) {
+                    directBuffer.limit((int) (size - totalRead));
+                }
+
+                int bytesRead = channel.read(directBuffer);
+                if (bytesRead < 0) {
+                    break;
+                }
+
+                directBuffer.flip();
+                if (hasher != null) {
+                    hasher.update(directBuffer.duplicate());
+                }
+                while (directBuffer.hasRemaining()) {
+                    file.write(directBuffer, position + totalRead + directBuffer.position());
+                }
+                totalRead += bytesRead;
+
+                if (listener != null) {
+                    listener.onBytesRead(size, totalRead);
+                }
+            }
+        } finally {
+            bytesReceived += totalRead;
+            close();
+        }
+        checkSize(size, totalRead);
+
+        return totalRead;
+    }
+
+    private void checkSize(long size, long totalRead) throws IOException {
+        if (size >= 0 && totalRead < size) {
+            debugger.trace(TraceEvent.Type.DATA_ENDED_PREMATURELY);
+            throw new IOException(DATA_STREAM_ENDED_PREMATURELY);
+        }
+    }
+
     /**
      * Write bytes to data output stream.
      *
@@ -118,29 +487,143 @@ public class DataConnection {
      * @throws java.io.IOException If an I/O error occurs.
      */
     public void writeBytes(byte[] bytes, OnBytesWriteListener listener) throws IOException {
-        debugger.writeMassage(DEBUG_TAG, WRITE_BYTES + bytes.length);
-        int blocks = bytes.length / BLOCK_SIZE;
-        int module = (bytes.length < BLOCK_SIZE) ? bytes.length : bytes.length % BLOCK_SIZE;
+        debugger.trace(TraceEvent.Type.WRITE_BYTES, bytes.length);
         int totalWrote = 0;
 
-        for (int i = 0; i < blocks; i++) {
-            dataOut.write(bytes, BLOCK_SIZE * i, BLOCK_SIZE);
-            totalWrote += BLOCK_SIZE;
-            if (listener != null) {
-                listener.onBytesWrite(bytes.length, totalWrote);
+        try {
+            while (totalWrote < bytes.length) {
+                int length = Math.min(BUFFER_SIZE, bytes.length - totalWrote);
+                if (hasher != null) {
+                    hasher.update(bytes, totalWrote, length);
+                }
+                dataOut.write(bytes, totalWrote, length);
+                totalWrote += length;
+                if (listener != null) {
+                    listener.onBytesWrite((long) bytes.length, (long) totalWrote);
+                }
             }
+            finishOutput();
+        } finally {
+            bytesSent += totalWrote;
+            close();
         }
+    }
 
-        if (module != 0) {
-            dataOut.write(bytes, BLOCK_SIZE * blocks, module);
-            totalWrote += module;
-            if (listener != null) {
-                listener.onBytesWrite(bytes.length, totalWrote);
+    /**
+     * Copy bytes from the input stream to data output stream until the end of the input stream.
+     * Bytes are passed through the fixed-size buffer of this connection.
+     *
+     * @param in       stream to read the bytes to write.
+     * @param size     expected amount of bytes, or -1 if unknown.
+     * @param listener bytes write listener.
+     * @return amount of written bytes.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public long copyFrom(InputStream in, long size, OnBytesWriteListener listener) throws IOException {
+        debugger.trace(TraceEvent.Type.COPY_BYTES, size);
+        long totalWrote = 0;
+
+        try {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) >= 0) {
+                if (hasher != null) {
+                    hasher.update(buffer, 0, bytesRead);
+                }
+                dataOut.write(buffer, 0, bytesRead);
+                totalWrote += bytesRead;
+                if (listener != null) {
+                    listener.onBytesWrite(size, totalWrote);
+                }
             }
+            finishOutput();
+        } finally {
+            bytesSent += totalWrote;
+            close();
         }
 
-        dataOut.flush();
-        close();
+        return totalWrote;
+    }
+
+    /**
+     * Write the region of the file to the data connection.
+     * Uses {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * so the operating system can send the file without copying its content to the Java heap.
+     *
+     * @param file     file to write.
+     * @param position position in the file of the first byte to write.
+     * @param size     amount of bytes to write.
+     * @param listener bytes write listener.
+     * @return amount of written bytes.
+     * @throws java.io.IOException If an I/O error occurs or file ended before expected amount of bytes.
+     */
+    public long transferFrom(FileChannel file, long position, long size, OnBytesWriteListener listener)
+            throws IOException {
+        if (hasher != null || compressed) {
+            return writeFromFile(file, position, size, listener);
+        }
+        debugger.trace(TraceEvent.Type.TRANSFER_FILE, size);
+        long totalWrote = 0;
+
+        try {
+            while (totalWrote < size) {
+                long count = Math.min(TRANSFER_CHUNK_SIZE, size - totalWrote);
+                long wrote = file.transferTo(position + totalWrote, count, channel);
+
+                if (wrote <= 0 && position + totalWrote >= file.size()) {
+                    throw new IOException(FILE_ENDED_PREMATURELY);
+                }
+
+                totalWrote += wrote;
+                if (listener != null) {
+                    listener.onBytesWrite(size, totalWrote);
+                }
+            }
+        } finally {
+            bytesSent += totalWrote;
+            close();
+        }
+
+        return totalWrote;
+    }
+
+    /**
+     * Write the region of the file to the data output stream through the buffer, so the bytes can be
+     * hashed and compressed on the way. Each byte is read from the disk only once.
+     */
+    private long writeFromFile(FileChannel file, long position, long size, OnBytesWriteListener listener)
+            throws IOException {
+        debugger.trace(TraceEvent.Type.WRITE_FILE, size);
+        long totalWrote = 0;
+
+        try {
+            while (totalWrote < size) {
+                byteBuffer.clear();
+                if (size - totalWrote < BUFFER_SIZE) {
+                    byteBuffer.limit((int) (size - totalWrote));
+                }
+
+                int bytesRead = file.read(byteBuffer, position + totalWrote);
+                if (bytesRead < 0) {
+                    throw new IOException(FILE_ENDED_PREMATURELY);
+                }
+
+                if (hasher != null) {
+                    hasher.update(buffer, 0, bytesRead);
+                }
+                dataOut.write(buffer, 0, bytesRead);
+                totalWrote += bytesRead;
+
+                if (listener != null) {
+                    listener.onBytesWrite(size, totalWrote);
+                }
+            }
+            finishOutput();
+        } finally {
+            bytesSent += totalWrote;
+            close();
+        }
+
+        return totalWrote;
     }
 
 }
@@ -0,0 +1,76 @@
+package ftp.connection;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Algorithms of the file hashes computed by the server (HASH, XCRC, XMD5, XSHA1, XSHA256, XSHA512).
+ *
+ * @author Vojko Vladimir
+ */
+public enum HashAlgorithm {
+
+    CRC32("CRC32", "XCRC"),
+    CRC32C("CRC32C", null),
+    MD5("MD5", "XMD5"),
+    SHA_1("SHA-1", "XSHA1"),
+    SHA_256("SHA-256", "XSHA256"),
+    SHA_512("SHA-512", "XSHA512");
+
+    private final String name;
+    private final String command;
+
+    HashAlgorithm(String name, String command) {
+        this.name = name;
+        this.command = command;
+    }
+
+    /**
+     * Get name of the algorithm used by the HASH command.
+     *
+     * @return name of the algorithm (e.g., "SHA-256").
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the non-standard command computing the hash, supported by many servers without HASH.
+     *
+     * @return command without the argument, or null if there is none.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Check whether the hash value is a checksum, which servers might send without leading zeros.
+     *
+     * @return true for CRC algorithms.
+     */
+    public boolean isChecksum() {
+        return this == CRC32 || this == CRC32C;
+    }
+
+    /**
+     * Create hasher computing the hash of this algorithm.
+     *
+     * @return new hasher.
+     */
+    public Hasher newHasher() {
+        switch (this) {
+            case CRC32:
+                return new Hasher(this, new CRC32());
+            case CRC32C:
+                return new Hasher(this, new CRC32C());
+            default:
+                try {
+                    return new Hasher(this, MessageDigest.getInstance(name));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+        }
+    }
+}
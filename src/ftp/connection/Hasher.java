@@ -0,0 +1,105 @@
+package ftp.connection;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.zip.Checksum;
+
+/**
+ * Hash of the transferred bytes, updated by the data connection while the bytes pass through it.
+ *
+ * @author Vojko Vladimir
+ */
+public class Hasher {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final HashAlgorithm algorithm;
+    private final Checksum checksum;
+    private final MessageDigest digest;
+
+    Hasher(HashAlgorithm algorithm, Checksum checksum) {
+        this.algorithm = algorithm;
+        this.checksum = checksum;
+        this.digest = null;
+    }
+
+    Hasher(HashAlgorithm algorithm, MessageDigest digest) {
+        this.algorithm = algorithm;
+        this.checksum = null;
+        this.digest = digest;
+    }
+
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Add bytes of the array to the hash.
+     *
+     * @param bytes  array with the bytes.
+     * @param offset offset of the first byte.
+     * @param length amount of bytes.
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        if (checksum != null) {
+            checksum.update(bytes, offset, length);
+        } else {
+            digest.update(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Add remaining bytes of the buffer to the hash. The buffer position is moved to its limit.
+     *
+     * @param buffer buffer with the bytes.
+     */
+    public void update(ByteBuffer buffer) {
+        if (checksum != null) {
+            checksum.update(buffer);
+        } else {
+            digest.update(buffer);
+        }
+    }
+
+    /**
+     * Get the hash of all added bytes. The hasher is reset afterwards.
+     *
+     * @return hash as lower case hex digits.
+     */
+    public String getValue() {
+        if (checksum != null) {
+            String value = String.format(Locale.ROOT, "%08x", checksum.getValue());
+            checksum.reset();
+            return value;
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Check whether the hash reported by the server is equal to the computed one.
+     * Letter case is ignored, and leading zeros of checksums too.
+     *
+     * @param algorithm algorithm of the hashes.
+     * @param expected  hash reported by the server.
+     * @param actual    computed hash.
+     * @return true if hashes are equal.
+     */
+    public static boolean matches(HashAlgorithm algorithm, String expected, String actual) {
+        if (algorithm.isChecksum()) {
+            try {
+                return Long.parseLong(expected, 16) == Long.parseLong(actual, 16);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return expected.equalsIgnoreCase(actual);
+    }
+}
@@ -0,0 +1,111 @@
+package ftp.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reader of the lines of the text data that does not decode them.
+ * Lines are terminated by LF or CRLF, empty lines are skipped. Lines are passed directly from the read
+ * buffer, unless they cross its boundary.
+ *
+ * @author Vojko Vladimir
+ */
+public class LineReader {
+
+    private static final int LINE_SIZE = 256;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private byte[] carry = new byte[LINE_SIZE];
+    private int carryLength = 0;
+
+    /**
+     * Create line reader.
+     *
+     * @param in     stream to read.
+     * @param buffer buffer for the read bytes.
+     */
+    public LineReader(InputStream in, byte[] buffer) {
+        this.in = in;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read the next line and pass it to the listener.
+     *
+     * @param listener line read listener.
+     * @return true if the line was read, false at the end of data.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public boolean readLine(OnLineReadListener listener) throws IOException {
+        while (true) {
+            int end = indexOfLineFeed();
+            if (end >= 0) {
+                int start = position;
+                position = end + 1;
+                if (carryLength == 0) {
+                    if (onLine(listener, buffer, start, end - start)) {
+                        return true;
+                    }
+                } else {
+                    append(buffer, start, end - start);
+                    int length = carryLength;
+                    carryLength = 0;
+                    if (onLine(listener, carry, 0, length)) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            append(buffer, position, limit - position);
+            position = 0;
+            limit = 0;
+            int bytesRead = in.read(buffer);
+            if (bytesRead == -1) {
+                int length = carryLength;
+                carryLength = 0;
+                return onLine(listener, carry, 0, length);
+            }
+            limit = bytesRead;
+        }
+    }
+
+    private int indexOfLineFeed() {
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pass the line without the trailing CR to the listener, if it is not empty.
+     */
+    private static boolean onLine(OnLineReadListener listener, byte[] line, int offset, int length) {
+        if (length > 0 && line[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return false;
+        }
+        listener.onLineRead(line, offset, length);
+        return true;
+    }
+
+    /**
+     * Append bytes to the end of the partial line, growing it if needed.
+     */
+    private void append(byte[] bytes, int offset, int length) {
+        if (carryLength + length > carry.length) {
+            byte[] grown = new byte[Math.max(carry.length * 2, carryLength + length)];
+            System.arraycopy(carry, 0, grown, 0, carryLength);
+            carry = grown;
+        }
+        System.arraycopy(bytes, offset, carry, carryLength, length);
+        carryLength += length;
+    }
+}
@@ -2,15 +2,29 @@ package ftp.connection;
 
 /**
  * Interface definition for a callback to be invoked when the bytes read.
+ * The amounts are long, so progress of files over 2 GB does not overflow. Implementations of the old
+ * int callback have to implement {@link #onBytesRead(long, long)} instead, lambdas compile unchanged.
  *
  * @author Vojko Vladimir
  */
 public interface OnBytesReadListener {
+    /**
+     * Called when the bytes read.
+     *
+     * @param bytesAmount the amount of bytes to read, or -1 if the amount is unknown.
+     * @param totalRead   the total amount of bytes read on current call.
+     */
+    public void onBytesRead(long bytesAmount, long totalRead);
+
     /**
      * Called when the bytes read.
      *
      * @param bytesAmount the amount of bytes to read.
      * @param totalRead   the total amount of bytes read on current call.
+     * @deprecated Use {@link #onBytesRead(long, long)}, which this method calls.
      */
-    public void onBytesRead(int bytesAmount, int totalRead);
+    @Deprecated
+    public default void onBytesRead(int bytesAmount, int totalRead) {
+        onBytesRead((long) bytesAmount, (long) totalRead);
+    }
 }
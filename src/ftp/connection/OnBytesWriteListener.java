@@ -2,6 +2,8 @@ package ftp.connection;
 
 /**
  * Interface definition for a callback to be invoked when written the bytes.
+ * The amounts are long, so progress of files over 2 GB does not overflow. Implementations of the old
+ * int callback have to implement {@link #onBytesWrite(long, long)} instead, lambdas compile unchanged.
  *
  * @author Vojko Vladimir
  */
@@ -9,8 +11,20 @@ public interface OnBytesWriteListener {
     /**
      * Called when the bytes written.
      *
-     * @param bytesAmount the amount of bytes to write.
-     * @param totalWritten   the total amount of bytes written on current call.
+     * @param bytesAmount  the amount of bytes to write, or -1 if the amount is unknown.
+     * @param totalWritten the total amount of bytes written on current call.
      */
-    public void onBytesWrite(int bytesAmount, int totalWritten);
+    public void onBytesWrite(long bytesAmount, long totalWritten);
+
+    /**
+     * Called when the bytes written.
+     *
+     * @param bytesAmount  the amount of bytes to write.
+     * @param totalWritten the total amount of bytes written on current call.
+     * @deprecated Use {@link #onBytesWrite(long, long)}, which this method calls.
+     */
+    @Deprecated
+    public default void onBytesWrite(int bytesAmount, int totalWritten) {
+        onBytesWrite((long) bytesAmount, (long) totalWritten);
+    }
 }
@@ -0,0 +1,17 @@
+package ftp.connection;
+
+/**
+ * Interface definition for a callback to be invoked when the line of the text data is read.
+ *
+ * @author Vojko Vladimir
+ */
+public interface OnLineReadListener {
+    /**
+     * Called when the line is read. The bytes are valid only during the call.
+     *
+     * @param line   buffer with the line, without the line terminator.
+     * @param offset offset of the line in the buffer.
+     * @param length length of the line.
+     */
+    public void onLineRead(byte[] line, int offset, int length);
+}
@@ -10,6 +10,15 @@ public class Reply {
     public int code;
     public String text;
 
+    /**
+     * Check whether the requested action has been successfully completed.
+     *
+     * @return true if the reply code is 2xx.
+     */
+    public boolean isPositiveCompletion() {
+        return code >= 200 && code < 300;
+    }
+
     @Override
     public String toString() {
         return code + text;
@@ -10,10 +10,26 @@ public interface ReplyCode {
      * Indicates that service will be ready in nnn minutes.
      */
     int SERVICE_READY_IN_NNN_MINUTES = 120;
+    /**
+     * Command okay (e.g., reply to NOOP).
+     */
+    int COMMAND_OK = 200;
+    /**
+     * System status, or system help reply (e.g., list of features).
+     */
+    int SYSTEM_STATUS = 211;
+    /**
+     * File status.
+     */
+    int FILE_STATUS = 213;
     /**
      * Need account for login.
      */
     int NEED_ACCOUNT_FOR_LOGIN = 332;
+    /**
+     * Requested file action pending further information.
+     */
+    int FILE_ACTION_PENDING = 350;
     /**
      * Indicates that service not available, closing control connection.
      * This may be a reply to any command if the service knows it must shut down.
@@ -0,0 +1,175 @@
+package ftp.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Incremental decoder of the FTP server replies from the raw bytes of the control connection.
+ * Bytes can be passed in chunks of any size, the decoder keeps the incomplete line between the calls.
+ * Multi-line replies are terminated according to RFC 959: by the line that starts with the same code
+ * followed by the space. Lines of the multi-line reply are collected in the reusable builder, and the decoded
+ * reply can be written into the reused {@link Reply} object.
+ *
+ * @author Vojko Vladimir
+ */
+public class ReplyDecoder {
+
+    private static final int INITIAL_LINE_SIZE = 256;
+    private static final int CODE_LENGTH = 3;
+
+    private final Charset charset;
+    private final StringBuilder multiLineText = new StringBuilder();
+    private byte[] line = new byte[INITIAL_LINE_SIZE];
+    private int lineLength = 0;
+    private int multiLineCode = -1;
+    private int code;
+    private String text;
+
+    /**
+     * Create decoder.
+     *
+     * @param charset charset of the reply text.
+     */
+    public ReplyDecoder(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Decode the next reply from the buffer.
+     * Bytes are consumed up to the end of the decoded reply, or all bytes if the reply is incomplete.
+     *
+     * @param in buffer with received bytes.
+     * @return decoded reply, or null if more bytes are needed.
+     */
+    public Reply decode(ByteBuffer in) {
+        return decode(in, null);
+    }
+
+    /**
+     * Decode the next reply from the buffer into the given reply object.
+     * Bytes are consumed up to the end of the decoded reply, or all bytes if the reply is incomplete.
+     *
+     * @param in    buffer with received bytes.
+     * @param reply reply object to reuse, or null to create the new one.
+     * @return decoded reply, or null if more bytes are needed.
+     */
+    public Reply decode(ByteBuffer in, Reply reply) {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                boolean complete = decodeLine();
+                lineLength = 0;
+                if (complete) {
+                    if (reply == null) {
+                        reply = new Reply();
+                    }
+                    reply.code = code;
+                    reply.text = text;
+                    text = null;
+                    return reply;
+                }
+            } else {
+                if (lineLength == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, lineLength);
+                    line = grown;
+                }
+                line[lineLength++] = b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the decoder holds the part of the reply.
+     *
+     * @return true if some bytes of the next reply are already received.
+     */
+    public boolean hasPartialReply() {
+        return lineLength > 0 || multiLineCode >= 0;
+    }
+
+    /**
+     * Forget the partially decoded reply.
+     */
+    public void reset() {
+        lineLength = 0;
+        multiLineCode = -1;
+        multiLineText.setLength(0);
+    }
+
+    /**
+     * Decode the complete line.
+     *
+     * @return true if the line completes the reply, which is stored in code and text.
+     */
+    private boolean decodeLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        int lineCode = parseCode(line, length);
+
+        if (multiLineCode < 0) {
+            if (lineCode < 0) {
+                return false;
+            }
+            if (length > CODE_LENGTH && line[CODE_LENGTH] == '-') {
+                multiLineCode = lineCode;
+                multiLineText.setLength(0);
+                appendText(CODE_LENGTH + 1, length);
+                return false;
+            }
+            code = lineCode;
+            text = (length > CODE_LENGTH) ? new String(line, CODE_LENGTH, length - CODE_LENGTH, charset) : "";
+            return true;
+        }
+
+        if (lineCode == multiLineCode && (length == CODE_LENGTH || line[CODE_LENGTH] == ' ')) {
+            code = lineCode;
+            text = multiLineText.toString();
+            multiLineCode = -1;
+            multiLineText.setLength(0);
+            return true;
+        }
+        multiLineText.append('\n');
+        appendText(0, length);
+        return false;
+    }
+
+    /**
+     * Append the part of the line to the multi-line text. ASCII bytes are appended without decoding.
+     */
+    private void appendText(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line[i] < 0) {
+                multiLineText.append(new String(line, i, end - i, charset));
+                return;
+            }
+            multiLineText.append((char) line[i]);
+        }
+    }
+
+    /**
+     * Parse the reply code from the first three digits of the line.
+     *
+     * @return reply code, or -1 if the line does not start with the code.
+     */
+    static int parseCode(byte[] line, int length) {
+        if (length < CODE_LENGTH) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            code = code * 10 + digit;
+        }
+        if (length > CODE_LENGTH && line[CODE_LENGTH] != ' ' && line[CODE_LENGTH] != '-') {
+            return -1;
+        }
+        return code;
+    }
+}
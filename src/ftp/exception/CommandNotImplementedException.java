@@ -0,0 +1,13 @@
+package ftp.exception;
+
+/**
+ * Indicates that command is not implemented or not recognized by the server.
+ *
+ * @author Vojko Vladimir
+ */
+public class CommandNotImplementedException extends FTPException {
+
+    public CommandNotImplementedException(String msg) {
+        super(msg);
+    }
+}
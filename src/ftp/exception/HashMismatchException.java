@@ -0,0 +1,39 @@
+package ftp.exception;
+
+/**
+ * Indicates that the hash of the transferred file computed by the client differs from the hash
+ * reported by the server, so the file is corrupted.
+ *
+ * @author Vojko Vladimir
+ */
+public class HashMismatchException extends FTPException {
+
+    private final String algorithm;
+    private final String expected;
+    private final String actual;
+
+    public HashMismatchException(String algorithm, String expected, String actual) {
+        super(algorithm + " mismatch: server " + expected + ", client " + actual);
+        this.algorithm = algorithm;
+        this.expected = expected;
+        this.actual = actual;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the hash reported by the server.
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * Get the hash computed by the client.
+     */
+    public String getActual() {
+        return actual;
+    }
+}
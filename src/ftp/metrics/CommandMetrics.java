@@ -0,0 +1,81 @@
+package ftp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies and reply codes of one FTP command.
+ * Latencies are recorded for all replies and separately for every reply class (1xx to 5xx), so the slow
+ * errors can be told from the slow successful commands.
+ *
+ * @author Vojko Vladimir
+ */
+public class CommandMetrics {
+
+    private static final int MIN_REPLY_CODE = 100;
+    private static final int MAX_REPLY_CODE = 599;
+    private static final int REPLY_CLASSES = 5;
+
+    private final String command;
+    private final Histogram latency = new Histogram();
+    private final Histogram[] classLatency = new Histogram[REPLY_CLASSES];
+    private final AtomicLongArray replyCodes = new AtomicLongArray(MAX_REPLY_CODE - MIN_REPLY_CODE + 1);
+
+    CommandMetrics(String command) {
+        this.command = command;
+        for (int i = 0; i < REPLY_CLASSES; i++) {
+            classLatency[i] = new Histogram();
+        }
+    }
+
+    void record(int replyCode, long nanos) {
+        latency.record(nanos);
+        if (replyCode >= MIN_REPLY_CODE && replyCode <= MAX_REPLY_CODE) {
+            classLatency[replyCode / 100 - 1].record(nanos);
+            replyCodes.incrementAndGet(replyCode - MIN_REPLY_CODE);
+        }
+    }
+
+    /**
+     * Get the command name.
+     *
+     * @return command without arguments (e.g., "RETR").
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Get latencies of all replies.
+     *
+     * @return histogram of latencies in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get latencies of the replies of one class.
+     *
+     * @param replyClass first digit of the reply code, from 1 to 5.
+     * @return histogram of latencies in nanoseconds.
+     */
+    public Histogram getLatency(int replyClass) {
+        if (replyClass < 1 || replyClass > REPLY_CLASSES) {
+            throw new IllegalArgumentException();
+        }
+        return classLatency[replyClass - 1];
+    }
+
+    /**
+     * Get amount of replies with the code.
+     *
+     * @param replyCode reply code.
+     * @return amount of replies.
+     */
+    public long getReplyCount(int replyCode) {
+        if (replyCode < MIN_REPLY_CODE || replyCode > MAX_REPLY_CODE) {
+            return 0;
+        }
+        return replyCodes.get(replyCode - MIN_REPLY_CODE);
+    }
+}
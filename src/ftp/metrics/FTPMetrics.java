@@ -0,0 +1,208 @@
+package ftp.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics listener that aggregates the measurements into histograms and counters.
+ * One instance can be shared by many clients (e.g., all clients of the {@link ftp.FTPClientPool}).
+ * Recording is lock-free and, once the command is seen for the first time, does not allocate.
+ *
+ * @author Vojko Vladimir
+ */
+public class FTPMetrics implements MetricsListener {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Metrics by the command as passed by the connection, possibly with the trailing space.
+     */
+    private final ConcurrentMap<String, CommandMetrics> commands = new ConcurrentHashMap<String, CommandMetrics>();
+    /**
+     * The same metrics by the command name.
+     */
+    private final ConcurrentMap<String, CommandMetrics> names = new ConcurrentHashMap<String, CommandMetrics>();
+    private final Histogram connectTime = new Histogram();
+    private final Histogram dataConnectionSetupTime = new Histogram();
+    private final Histogram downloadThroughput = new Histogram();
+    private final Histogram uploadThroughput = new Histogram();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    @Override
+    public void onConnected(long nanos) {
+        connects.incrementAndGet();
+        connectTime.record(nanos);
+    }
+
+    @Override
+    public void onReconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    @Override
+    public void onCommand(String command, int replyCode, long nanos) {
+        CommandMetrics metrics = commands.get(command);
+        if (metrics == null) {
+            metrics = register(command);
+        }
+        metrics.record(replyCode, nanos);
+    }
+
+    @Override
+    public void onDataConnectionOpened(long nanos) {
+        dataConnectionSetupTime.record(nanos);
+    }
+
+    @Override
+    public void onDataTransferred(long bytesReceived, long bytesSent, long nanos) {
+        long duration = Math.max(1, nanos);
+        if (bytesReceived > 0) {
+            this.bytesReceived.addAndGet(bytesReceived);
+            downloadThroughput.record((long) (bytesReceived * NANOS_PER_SECOND / duration));
+        }
+        if (bytesSent > 0) {
+            this.bytesSent.addAndGet(bytesSent);
+            uploadThroughput.record((long) (bytesSent * NANOS_PER_SECOND / duration));
+        }
+    }
+
+    private CommandMetrics register(String command) {
+        String name = command.trim();
+        CommandMetrics metrics = names.get(name);
+        if (metrics == null) {
+            CommandMetrics created = new CommandMetrics(name);
+            metrics = names.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        commands.putIfAbsent(command, metrics);
+        return metrics;
+    }
+
+    /**
+     * Get metrics of the commands seen so far.
+     *
+     * @return metrics by the command name (e.g., "RETR").
+     */
+    public Map<String, CommandMetrics> getCommands() {
+        return Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * Get times of opening the control connection, including the server greeting.
+     *
+     * @return histogram of times in nanoseconds.
+     */
+    public Histogram getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * Get times of opening the data connection, from PASV to the established connection.
+     *
+     * @return histogram of times in nanoseconds.
+     */
+    public Histogram getDataConnectionSetupTime() {
+        return dataConnectionSetupTime;
+    }
+
+    /**
+     * Get throughput of the downloads, one value per data connection.
+     *
+     * @return histogram of throughput in bytes per second.
+     */
+    public Histogram getDownloadThroughput() {
+        return downloadThroughput;
+    }
+
+    /**
+     * Get throughput of the uploads, one value per data connection.
+     *
+     * @return histogram of throughput in bytes per second.
+     */
+    public Histogram getUploadThroughput() {
+        return uploadThroughput;
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get all metrics as flat name-value pairs (e.g., "command.RETR.p99" or "downloadThroughput.p50").
+     * Times are in milliseconds, throughput in bytes per second.
+     *
+     * @return metrics sorted by name.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new TreeMap<String, Number>();
+        snapshot.put("connects", getConnects());
+        snapshot.put("reconnects", getReconnects());
+        snapshot.put("bytesReceived", getBytesReceived());
+        snapshot.put("bytesSent", getBytesSent());
+        putTime(snapshot, "connectTime", connectTime);
+        putTime(snapshot, "dataConnectionSetupTime", dataConnectionSetupTime);
+        putValue(snapshot, "downloadThroughput", downloadThroughput);
+        putValue(snapshot, "uploadThroughput", uploadThroughput);
+
+        for (CommandMetrics metrics : names.values()) {
+            String prefix = "command." + metrics.getCommand();
+            putTime(snapshot, prefix, metrics.getLatency());
+            for (int replyClass = 1; replyClass <= 5; replyClass++) {
+                Histogram latency = metrics.getLatency(replyClass);
+                if (latency.getCount() > 0) {
+                    String classPrefix = prefix + "." + replyClass + "xx";
+                    snapshot.put(classPrefix + ".count", latency.getCount());
+                    snapshot.put(classPrefix + ".p99", latency.getValueAtPercentile(99) / NANOS_PER_MILLI);
+                }
+            }
+            for (int code = 100; code < 600; code++) {
+                long count = metrics.getReplyCount(code);
+                if (count > 0) {
+                    snapshot.put(prefix + ".reply." + code, count);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private static void putTime(Map<String, Number> snapshot, String prefix, Histogram histogram) {
+        snapshot.put(prefix + ".count", histogram.getCount());
+        snapshot.put(prefix + ".mean", histogram.getMean() / NANOS_PER_MILLI);
+        snapshot.put(prefix + ".p50", histogram.getValueAtPercentile(50) / NANOS_PER_MILLI);
+        snapshot.put(prefix + ".p90", histogram.getValueAtPercentile(90) / NANOS_PER_MILLI);
+        snapshot.put(prefix + ".p99", histogram.getValueAtPercentile(99) / NANOS_PER_MILLI);
+        snapshot.put(prefix + ".max", histogram.getMax() / NANOS_PER_MILLI);
+    }
+
+    private static void putValue(Map<String, Number> snapshot, String prefix, Histogram histogram) {
+        snapshot.put(prefix + ".count", histogram.getCount());
+        snapshot.put(prefix + ".mean", histogram.getMean());
+        snapshot.put(prefix + ".p50", histogram.getValueAtPercentile(50));
+        snapshot.put(prefix + ".p90", histogram.getValueAtPercentile(90));
+        snapshot.put(prefix + ".p99", histogram.getValueAtPercentile(99));
+        snapshot.put(prefix + ".max", histogram.getMax());
+    }
+}
@@ -0,0 +1,159 @@
+package ftp.metrics;
+
+import ftp.FTPClientPool;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Export metrics and pool gauges to the platform MBean server, so they can be watched by JConsole,
+ * VisualVM or any JMX collector. Metrics are exported as read-only attributes named as in
+ * {@link FTPMetrics#snapshot()}, new commands appear as new attributes.
+ *
+ * @author Vojko Vladimir
+ */
+public final class JmxExporter {
+
+    /**
+     * Domain of the exported MBeans.
+     */
+    public static final String DOMAIN = "ftp";
+
+    private static final String METRICS_TYPE = "Metrics";
+    private static final String POOL_TYPE = "FTPClientPool";
+
+    /**
+     * Gauges of the {@link FTPClientPool}.
+     */
+    public interface PoolMXBean {
+        int getIdleCount();
+
+        int getBorrowedCount();
+
+        int getWaitingCount();
+    }
+
+    private JmxExporter() {
+    }
+
+    /**
+     * Register metrics as the MBean "ftp:type=Metrics,name=...".
+     *
+     * @param metrics metrics to export.
+     * @param name    name that tells apart several exported metrics.
+     * @return name of the registered MBean, to be passed to {@link #unregister(ObjectName)}.
+     * @throws javax.management.JMException If the MBean can't be registered (e.g., the name is already used).
+     */
+    public static ObjectName register(FTPMetrics metrics, String name) throws JMException {
+        ObjectName objectName = objectName(METRICS_TYPE, name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), objectName);
+        return objectName;
+    }
+
+    /**
+     * Register gauges of the pool as the MBean "ftp:type=FTPClientPool,name=...".
+     *
+     * @param pool pool to export.
+     * @param name name that tells apart several exported pools.
+     * @return name of the registered MBean, to be passed to {@link #unregister(ObjectName)}.
+     * @throws javax.management.JMException If the MBean can't be registered (e.g., the name is already used).
+     */
+    public static ObjectName register(final FTPClientPool pool, String name) throws JMException {
+        ObjectName objectName = objectName(POOL_TYPE, name);
+        PoolMXBean gauges = new PoolMXBean() {
+            @Override
+            public int getIdleCount() {
+                return pool.getIdleCount();
+            }
+
+            @Override
+            public int getBorrowedCount() {
+                return pool.getBorrowedCount();
+            }
+
+            @Override
+            public int getWaitingCount() {
+                return pool.getWaitingCount();
+            }
+        };
+        ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new StandardMBean(gauges, PoolMXBean.class, true), objectName);
+        return objectName;
+    }
+
+    /**
+     * Unregister the exported MBean.
+     *
+     * @param objectName name returned by the registration.
+     * @throws javax.management.JMException If the MBean is not registered.
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    private static ObjectName objectName(String type, String name) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Read-only MBean with the attributes of the metrics snapshot.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private final FTPMetrics metrics;
+
+        MetricsMBean(FTPMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = metrics.snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> snapshot = metrics.snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = snapshot.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> snapshot = metrics.snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false);
+            }
+            return new MBeanInfo(FTPMetrics.class.getName(), "FTP client metrics", attributes,
+                    null, null, null);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ftp.metrics;
+
+/**
+ * Listener of the measurements taken by the control and data connections.
+ * Methods are called on the hot path of every command and transfer, from the threads that use the client,
+ * so implementations must be fast, thread-safe and should not allocate (see {@link FTPMetrics}).
+ * All times are in nanoseconds.
+ *
+ * @author Vojko Vladimir
+ */
+public interface MetricsListener {
+
+    /**
+     * Called when the control connection is opened and the server greeting is received.
+     *
+     * @param nanos time of the connection and the greeting.
+     */
+    void onConnected(long nanos);
+
+    /**
+     * Called when the broken control connection is restored by the new connection and login.
+     */
+    void onReconnected();
+
+    /**
+     * Called when the reply to the command is received. For the transfer commands this is the preliminary
+     * reply (e.g., 150), so the latency does not include the transfer.
+     *
+     * @param command   command without arguments, possibly with the trailing space (e.g., "RETR ").
+     * @param replyCode code of the reply.
+     * @param nanos     time from sending the command to receiving the reply.
+     */
+    void onCommand(String command, int replyCode, long nanos);
+
+    /**
+     * Called when the data connection is opened.
+     *
+     * @param nanos time from requesting the passive mode (PASV) to the established connection.
+     */
+    void onDataConnectionOpened(long nanos);
+
+    /**
+     * Called when the data connection that transferred file data is closed.
+     *
+     * @param bytesReceived amount of received bytes (after decompression).
+     * @param bytesSent     amount of sent bytes (before compression).
+     * @param nanos         time from opening to closing the data connection.
+     */
+    void onDataTransferred(long bytesReceived, long bytesSent, long nanos);
+}
@@ -0,0 +1,178 @@
+package ftp.mirror;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * State of the mirrored files after the last synchronization, persisted in the properties file.
+ * Every file is described by its size and the modification times of both copies, so the file is known
+ * to be unchanged if neither copy differs from its state.
+ *
+ * @author Vojko Vladimir
+ */
+public class Manifest {
+
+    private static final String SEPARATOR = ",";
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Load manifest from the file.
+     *
+     * @param path path of the manifest file.
+     * @return loaded manifest, or empty manifest if the file does not exist.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public static Manifest load(Path path) throws IOException {
+        Manifest manifest = new Manifest();
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+
+        Properties properties = new Properties();
+        Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        try {
+            properties.load(reader);
+        } finally {
+            reader.close();
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(name).split(SEPARATOR);
+            if (values.length == 3) {
+                try {
+                    manifest.entries.put(name, new Entry(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                            Long.parseLong(values[2])));
+                } catch (NumberFormatException ignored) {
+                    // Malformed entry, the file is synchronized again.
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Store manifest to the file. The file is replaced only after the new content is completely written.
+     *
+     * @param path path of the manifest file.
+     * @throws java.io.IOException If an I/O error occurs.
+     */
+    public synchronized void store(Path path) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(entry.getKey(),
+                    value.size + SEPARATOR + value.remoteModified + SEPARATOR + value.localModified);
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8);
+        try {
+            properties.store(writer, null);
+        } finally {
+            writer.close();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Get state of the file.
+     *
+     * @param path path of the file relative to the mirrored directory, with "/" separators.
+     * @return state of the file, or null if the file is not known.
+     */
+    public synchronized Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Set state of the file after it is synchronized.
+     *
+     * @param path  path of the file relative to the mirrored directory, with "/" separators.
+     * @param entry state of the file.
+     */
+    public synchronized void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * Forget the file.
+     *
+     * @param path path of the file relative to the mirrored directory, with "/" separators.
+     */
+    public synchronized void remove(String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * Forget all files except the given ones.
+     *
+     * @param paths paths of the files to keep.
+     */
+    public synchronized void retain(Set<String> paths) {
+        entries.keySet().retainAll(new HashSet<String>(paths));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * State of one synchronized file.
+     */
+    public static final class Entry {
+
+        private final long size;
+        private final long remoteModified;
+        private final long localModified;
+
+        /**
+         * Create state of the file.
+         *
+         * @param size           size of the file.
+         * @param remoteModified modification time of the remote copy in milliseconds, or -1 if unknown.
+         * @param localModified  modification time of the local copy in milliseconds.
+         */
+        public Entry(long size, long remoteModified, long localModified) {
+            this.size = size;
+            this.remoteModified = remoteModified;
+            this.localModified = localModified;
+        }
+
+        /**
+         * Check whether both copies are the same as when the file was synchronized.
+         *
+         * @param remoteSize     size of the remote copy.
+         * @param remoteModified modification time of the remote copy in milliseconds, or -1 if unknown.
+         * @param localSize      size of the local copy.
+         * @param localModified  modification time of the local copy in milliseconds.
+         * @return true if the file is unchanged.
+         */
+        public boolean matches(long remoteSize, long remoteModified, long localSize, long localModified) {
+            return size == remoteSize && size == localSize && this.remoteModified == remoteModified
+                    && this.localModified == localModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getRemoteModified() {
+            return remoteModified;
+        }
+
+        public long getLocalModified() {
+            return localModified;
+        }
+    }
+}
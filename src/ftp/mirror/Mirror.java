@@ -0,0 +1,610 @@
+package ftp.mirror;
+
+import ftp.FTPClient;
+import ftp.FTPClientPool;
+import ftp.RemoteFile;
+import ftp.RemoteFileVisitor;
+import ftp.RetryPolicy;
+import ftp.connection.Reply;
+import ftp.connection.ReplyCode;
+import ftp.exception.*;
+import ftp.transfer.Transfer;
+import ftp.transfer.TransferManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Synchronize the local directory tree with the remote one, transferring only new and changed files.
+ * Files are compared by the size and the modification time from the listing (MLSD) or from MDTM.
+ * The optional {@link Manifest} remembers both copies of every synchronized file, so files are also
+ * compared when the modification times of the copies differ (e.g., after the upload).
+ * Transfers are executed in parallel by the {@link TransferManager}, with sessions borrowed from the same pool,
+ * so the session of the mirror is given back to the pool while the files are transferred.
+ *
+ * @author Vojko Vladimir
+ */
+public class Mirror {
+
+    private static final String SEPARATOR = "/";
+
+    private final FTPClientPool pool;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String pass;
+    private final int parallelism;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private Path manifestPath;
+    private boolean deleteOrphans = false;
+
+    /**
+     * Create mirror of the server.
+     *
+     * @param pool        pool of sessions used by the mirror.
+     * @param host        address of the host.
+     * @param port        port of the server.
+     * @param user        user name.
+     * @param pass        user password.
+     * @param parallelism maximum amount of sessions used at the same time for listings and transfers.
+     *                    The listing sessions are opened next to the borrowed one, so the parallelism counts
+     *                    against the maximum sessions of the pool and is limited to it.
+     */
+    public Mirror(FTPClientPool pool, String host, int port, String user, String pass, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = pool;
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.pass = pass;
+        this.parallelism = Math.min(parallelism, pool.getMaxSessions());
+    }
+
+    /**
+     * Set the file of the manifest, which is loaded before and stored after every synchronization.
+     *
+     * @param manifestPath path of the manifest file, or null to compare files by the listing only.
+     */
+    public void setManifest(Path manifestPath) {
+        this.manifestPath = manifestPath;
+    }
+
+    /**
+     * Set whether files and directories missing in the source tree are deleted from the target tree.
+     *
+     * @param deleteOrphans true to delete orphans, false by default.
+     */
+    public void setDeleteOrphans(boolean deleteOrphans) {
+        this.deleteOrphans = deleteOrphans;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Download new and changed remote files to the local directory.
+     * Modification time of the downloaded files is set to the modification time of the remote files.
+     *
+     * @param remoteRoot absolute path of the remote directory.
+     * @param localRoot  path of the local directory, created if it does not exist.
+     * @return outcome of the synchronization.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public MirrorResult download(String remoteRoot, Path localRoot)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        return new Sync(remoteRoot, localRoot, Transfer.Direction.DOWNLOAD).run();
+    }
+
+    /**
+     * Upload new and changed local files to the remote directory.
+     *
+     * @param localRoot  path of the local directory.
+     * @param remoteRoot absolute path of the remote directory, created if it does not exist.
+     * @return outcome of the synchronization.
+     * @throws java.io.IOException                       If an I/O error occurs.
+     * @throws ftp.exception.NoConnectionException       If there is no connection.
+     * @throws ftp.exception.ServiceUnavailableException If ftp server is unavailable.
+     * @throws ftp.exception.NotLoggedInException        If user not logged in.
+     * @throws ftp.exception.NeedAccountException        If user need account for action.
+     */
+    public MirrorResult upload(Path localRoot, String remoteRoot)
+            throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+            NeedAccountException {
+        return new Sync(remoteRoot, localRoot, Transfer.Direction.UPLOAD).run();
+    }
+
+    /**
+     * Truncate the remote modification time to seconds, the precision of MDTM on most servers.
+     */
+    private static long seconds(Instant time) {
+        if (time == null) {
+            return -1;
+        }
+        return time.getEpochSecond() * 1000;
+    }
+
+    private static FTPException replyException(Reply reply) {
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                return new ServiceUnavailableException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                return new NotLoggedInException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                return new FileUnavailableException(reply.text);
+            case ReplyCode.FILE_NAME_NOT_ALLOWED:
+                return new FileNameNotAllowedException(reply.text);
+            default:
+                return new FileActionNotTakenException(reply.text);
+        }
+    }
+
+    /**
+     * State of one synchronization.
+     */
+    private class Sync {
+
+        private final String remoteRoot;
+        private final Path localRoot;
+        private final Transfer.Direction direction;
+        private final MirrorResult result = new MirrorResult();
+        private final Map<String, RemoteFile> remoteFiles = new ConcurrentHashMap<String, RemoteFile>();
+        private final Set<String> remoteDirectories =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Map<String, BasicFileAttributes> localFiles = new TreeMap<String, BasicFileAttributes>();
+        private final Set<String> localDirectories = new TreeSet<String>();
+        private final Set<String> failedDirectories =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private Manifest manifest;
+        private FTPClient client;
+        private volatile Exception rootFailure;
+
+        Sync(String remoteRoot, Path localRoot, Transfer.Direction direction) {
+            if (!remoteRoot.startsWith(SEPARATOR)) {
+                throw new IllegalArgumentException(remoteRoot);
+            }
+            while (remoteRoot.length() > 1 && remoteRoot.endsWith(SEPARATOR)) {
+                remoteRoot = remoteRoot.substring(0, remoteRoot.length() - 1);
+            }
+            this.remoteRoot = remoteRoot;
+            this.localRoot = localRoot;
+            this.direction = direction;
+        }
+
+        MirrorResult run()
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            manifest = (manifestPath != null) ? Manifest.load(manifestPath) : new Manifest();
+            scanLocal();
+
+            List<String> changed = null;
+            client = pool.borrow(host, port, user, pass);
+            boolean broken = true;
+            try {
+                scanRemote();
+                if (prepareDirectories()) {
+                    changed = compare();
+                }
+                broken = false;
+            } finally {
+                giveBack(broken);
+            }
+            if (changed == null) {
+                return result;
+            }
+
+            // The transfers borrow their sessions from the pool, so the client is not held meanwhile.
+            List<String> transferred = transfer(changed);
+
+            client = pool.borrow(host, port, user, pass);
+            broken = true;
+            try {
+                for (String path : transferred) {
+                    onTransferred(path);
+                }
+                if (deleteOrphans) {
+                    deleteOrphans();
+                }
+                manifest.retain(direction == Transfer.Direction.DOWNLOAD
+                        ? remoteFiles.keySet() : localFiles.keySet());
+                if (manifestPath != null) {
+                    manifest.store(manifestPath);
+                }
+                broken = false;
+            } finally {
+                giveBack(broken);
+            }
+            return result;
+        }
+
+        private void giveBack(boolean broken) {
+            if (broken) {
+                pool.invalidate(client);
+            } else {
+                pool.release(client);
+            }
+            client = null;
+        }
+
+        private void scanLocal() throws IOException {
+            if (!Files.isDirectory(localRoot)) {
+                if (direction == Transfer.Direction.UPLOAD) {
+                    throw new NoSuchFileException(localRoot.toString());
+                }
+                Files.createDirectories(localRoot);
+            }
+
+            Files.walkFileTree(localRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(localRoot)) {
+                        localDirectories.add(local(dir));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        localFiles.put(local(file), attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    String path = local(file);
+                    failedDirectories.add(path);
+                    result.onFailed(path, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private void scanRemote()
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            client.walk(remoteRoot, new RemoteFileVisitor() {
+                @Override
+                public FileVisitResult preVisitDirectory(String path, RemoteFile directory) {
+                    remoteDirectories.add(relative(path));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(String path, RemoteFile file) {
+                    if (RemoteFile.TYPE_FILE.equals(file.getType())) {
+                        remoteFiles.put(relative(path), file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitDirectoryFailed(String path, Exception e) {
+                    if (path.equals(remoteRoot)) {
+                        rootFailure = e;
+                    } else {
+                        String relative = relative(path);
+                        failedDirectories.add(relative);
+                        result.onFailed(relative, e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            }, parallelism);
+        }
+
+        /**
+         * Make target directories missing for the source ones.
+         *
+         * @return false if the target root does not exist and can't be made.
+         */
+        private boolean prepareDirectories()
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            if (direction == Transfer.Direction.DOWNLOAD) {
+                if (rootFailure != null) {
+                    result.onFailed("", rootFailure);
+                    return false;
+                }
+                for (String directory : new TreeSet<String>(remoteDirectories)) {
+                    try {
+                        Files.createDirectories(localRoot.resolve(directory));
+                    } catch (IOException e) {
+                        result.onFailed(directory, e);
+                    }
+                }
+                return true;
+            }
+
+            List<String> missing = new ArrayList<String>();
+            if (rootFailure != null) {
+                missing.add("");
+            }
+            for (String directory : localDirectories) {
+                if (!remoteDirectories.contains(directory)) {
+                    missing.add(directory);
+                }
+            }
+            List<String> pathNames = new ArrayList<String>(missing.size());
+            for (String directory : missing) {
+                pathNames.add(absolute(directory));
+            }
+
+            List<Reply> replies = client.makeDirectories(pathNames);
+            for (int i = 0; i < replies.size(); i++) {
+                if (!replies.get(i).isPositiveCompletion()) {
+                    result.onFailed(missing.get(i), replyException(replies.get(i)));
+                    if (missing.get(i).isEmpty()) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Find the source files which are new or changed.
+         *
+         * @return relative paths of the files to transfer.
+         */
+        private List<String> compare()
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            List<String> changed = new ArrayList<String>();
+            Collection<String> sources = (direction == Transfer.Direction.DOWNLOAD)
+                    ? new TreeSet<String>(remoteFiles.keySet()) : localFiles.keySet();
+
+            for (String path : sources) {
+                RemoteFile remoteFile = remoteFiles.get(path);
+                BasicFileAttributes localFile = localFiles.get(path);
+                if (remoteFile == null || localFile == null || remoteFile.getSize() != localFile.size()) {
+                    changed.add(path);
+                    continue;
+                }
+
+                long remoteModified = remoteModified(path, remoteFile);
+                long localModified = localFile.lastModifiedTime().toMillis();
+                Manifest.Entry entry = manifest.get(path);
+                boolean unchanged;
+                if (entry != null) {
+                    unchanged = entry.matches(remoteFile.getSize(), remoteModified, localFile.size(), localModified);
+                } else if (direction == Transfer.Direction.DOWNLOAD) {
+                    unchanged = remoteModified >= 0 && remoteModified == localModified;
+                } else {
+                    unchanged = remoteModified >= 0 && remoteModified >= localModified;
+                }
+
+                if (unchanged) {
+                    manifest.put(path, new Manifest.Entry(localFile.size(), remoteModified, localModified));
+                    result.onUnchanged();
+                } else {
+                    changed.add(path);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Transfer the files and wait until all of them are done.
+         *
+         * @return relative paths of the successfully transferred files.
+         */
+        private List<String> transfer(List<String> paths) throws InterruptedIOException {
+            List<String> transferred = new ArrayList<String>(paths.size());
+            if (paths.isEmpty()) {
+                return transferred;
+            }
+
+            List<Transfer> transfers = new ArrayList<Transfer>(paths.size());
+            for (String path : paths) {
+                transfers.add(new Transfer(direction, absolute(path), localRoot.resolve(path),
+                        Transfer.DEFAULT_PRIORITY));
+            }
+
+            TransferManager manager = new TransferManager(pool, parallelism, parallelism, retryPolicy);
+            List<Future<Long>> futures = manager.submit(host, port, user, pass, transfers);
+            manager.shutdown();
+
+            for (int i = 0; i < futures.size(); i++) {
+                String path = paths.get(i);
+                try {
+                    long bytes = futures.get(i).get();
+                    transferred.add(path);
+                    result.onTransferred(bytes);
+                } catch (ExecutionException e) {
+                    manifest.remove(path);
+                    Throwable cause = e.getCause();
+                    result.onFailed(path, (cause instanceof Exception) ? (Exception) cause : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (Future<Long> future : futures) {
+                        future.cancel(true);
+                    }
+                    throw new InterruptedIOException();
+                }
+            }
+            return transferred;
+        }
+
+        /**
+         * Remember both copies of the transferred file.
+         * Downloaded files get the modification time of the remote files.
+         */
+        private void onTransferred(String path)
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            Path local = localRoot.resolve(path);
+            long remoteModified;
+            if (direction == Transfer.Direction.DOWNLOAD) {
+                remoteModified = remoteModified(path, remoteFiles.get(path));
+                if (remoteModified >= 0) {
+                    Files.setLastModifiedTime(local, FileTime.fromMillis(remoteModified));
+                }
+            } else {
+                remoteModified = remoteModified(path, null);
+            }
+            manifest.put(path, new Manifest.Entry(Files.size(local), remoteModified,
+                    Files.getLastModifiedTime(local).toMillis()));
+        }
+
+        /**
+         * Get modification time of the remote file from the listing, or from MDTM (MLST if MDTM is not
+         * supported) if the listing has none.
+         *
+         * @return modification time in milliseconds truncated to seconds, or -1 if unknown.
+         */
+        private long remoteModified(String path, RemoteFile remoteFile)
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            if (remoteFile != null && remoteFile.getModified() != null) {
+                return seconds(remoteFile.getModified());
+            }
+            try {
+                Instant modified = client.getModificationTime(absolute(path));
+                if (modified == null) {
+                    modified = client.getFileInfo(absolute(path)).getModified();
+                }
+                return seconds(modified);
+            } catch (FileUnavailableException e) {
+                return -1;
+            } catch (CommandNotImplementedException e) {
+                return -1;
+            }
+        }
+
+        private void deleteOrphans()
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            if (direction == Transfer.Direction.DOWNLOAD) {
+                for (String path : localFiles.keySet()) {
+                    if (!remoteFiles.containsKey(path) && !isUnderFailedDirectory(path)) {
+                        deleteLocal(path);
+                    }
+                }
+                for (String directory : reversed(localDirectories)) {
+                    if (!remoteDirectories.contains(directory) && !isUnderFailedDirectory(directory)) {
+                        deleteLocal(directory);
+                    }
+                }
+                return;
+            }
+
+            List<String> files = new ArrayList<String>();
+            for (String path : new TreeSet<String>(remoteFiles.keySet())) {
+                if (!localFiles.containsKey(path) && !isUnderFailedDirectory(path)) {
+                    files.add(path);
+                }
+            }
+            deleteRemote(files, false);
+
+            List<String> directories = new ArrayList<String>();
+            for (String directory : reversed(remoteDirectories)) {
+                if (!localDirectories.contains(directory) && !isUnderFailedDirectory(directory)) {
+                    directories.add(directory);
+                }
+            }
+            deleteRemote(directories, true);
+        }
+
+        private void deleteLocal(String path) {
+            try {
+                Files.delete(localRoot.resolve(path));
+                manifest.remove(path);
+                result.onDeleted();
+            } catch (IOException e) {
+                result.onFailed(path, e);
+            }
+        }
+
+        private void deleteRemote(List<String> paths, boolean directories)
+                throws IOException, NoConnectionException, ServiceUnavailableException, NotLoggedInException,
+                NeedAccountException {
+            if (paths.isEmpty()) {
+                return;
+            }
+            List<String> pathNames = new ArrayList<String>(paths.size());
+            for (String path : paths) {
+                pathNames.add(absolute(path));
+            }
+
+            List<Reply> replies = directories ? client.removeDirectories(pathNames) : client.deleteFiles(pathNames);
+            for (int i = 0; i < replies.size(); i++) {
+                if (replies.get(i).isPositiveCompletion()) {
+                    manifest.remove(paths.get(i));
+                    result.onDeleted();
+                } else {
+                    result.onFailed(paths.get(i), replyException(replies.get(i)));
+                }
+            }
+        }
+
+        private boolean isUnderFailedDirectory(String path) {
+            for (String directory : failedDirectories) {
+                if (path.equals(directory) || path.startsWith(directory + SEPARATOR)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sort the directories so subdirectories are before their parents.
+         */
+        private List<String> reversed(Collection<String> directories) {
+            List<String> sorted = new ArrayList<String>(directories);
+            Collections.sort(sorted, Collections.<String>reverseOrder());
+            return sorted;
+        }
+
+        /**
+         * Get relative path of the local file with "/" separators.
+         */
+        private String local(Path path) {
+            StringBuilder relative = new StringBuilder();
+            for (Path name : localRoot.relativize(path)) {
+                if (relative.length() > 0) {
+                    relative.append(SEPARATOR);
+                }
+                relative.append(name.toString());
+            }
+            return relative.toString();
+        }
+
+        /**
+         * Get path of the remote file relative to the remote root.
+         */
+        private String relative(String path) {
+            int prefix = remoteRoot.equals(SEPARATOR) ? 1 : remoteRoot.length() + 1;
+            return (path.length() > prefix) ? path.substring(prefix) : "";
+        }
+
+        /**
+         * Get absolute path of the remote file from its relative path.
+         */
+        private String absolute(String path) {
+            if (path.isEmpty()) {
+                return remoteRoot;
+            }
+            return remoteRoot.equals(SEPARATOR) ? SEPARATOR + path : remoteRoot + SEPARATOR + path;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ftp.mirror;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of one synchronization by the {@link Mirror}.
+ *
+ * @author Vojko Vladimir
+ */
+public class MirrorResult {
+
+    private int transferred = 0;
+    private int unchanged = 0;
+    private int deleted = 0;
+    private long bytes = 0;
+    private final Map<String, Exception> failures = new TreeMap<String, Exception>();
+
+    synchronized void onTransferred(long bytes) {
+        transferred++;
+        this.bytes += bytes;
+    }
+
+    synchronized void onUnchanged() {
+        unchanged++;
+    }
+
+    synchronized void onDeleted() {
+        deleted++;
+    }
+
+    synchronized void onFailed(String path, Exception e) {
+        failures.put(path, e);
+    }
+
+    /**
+     * Get amount of files transferred because they were new or changed.
+     *
+     * @return amount of transferred files.
+     */
+    public synchronized int getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Get amount of files skipped because they were unchanged.
+     *
+     * @return amount of unchanged files.
+     */
+    public synchronized int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Get amount of orphan files and directories deleted from the target.
+     *
+     * @return amount of deleted files.
+     */
+    public synchronized int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Get amount of transferred bytes.
+     *
+     * @return transferred bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get files that could not be synchronized.
+     *
+     * @return failures by relative path of the file.
+     */
+    public synchronized Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(new TreeMap<String, Exception>(failures));
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "transferred=" + transferred + ", unchanged=" + unchanged + ", deleted=" + deleted
+                + ", bytes=" + bytes + ", failed=" + failures.size();
+    }
+}
@@ -0,0 +1,26 @@
+package ftp.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handler of the events of the channel registered in the {@link EventLoop}.
+ * All methods are called from the event loop thread.
+ *
+ * @author Vojko Vladimir
+ */
+interface ChannelHandler {
+
+    void onConnectable(SelectionKey key) throws IOException;
+
+    void onReadable(SelectionKey key) throws IOException;
+
+    void onWritable(SelectionKey key) throws IOException;
+
+    /**
+     * Called when the channel failed or the event loop is closed.
+     *
+     * @param e cause of the failure.
+     */
+    void onError(Exception e);
+}
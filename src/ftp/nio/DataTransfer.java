@@ -0,0 +1,161 @@
+package ftp.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking passive data connection driven by the {@link EventLoop}.
+ *
+ * @author Vojko Vladimir
+ */
+abstract class DataTransfer implements ChannelHandler {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Completed with the amount of transferred bytes when the data connection is closed.
+     */
+    final CompletableFuture<Long> done = new CompletableFuture<Long>();
+
+    final EventLoop loop;
+    SocketChannel channel;
+    long transferred = 0;
+
+    DataTransfer(EventLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Start connecting to the passive address of the server. Must be called from the loop thread.
+     */
+    void connect(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        if (channel.connect(address)) {
+            loop.register(channel, interestOps(), this);
+        } else {
+            loop.register(channel, SelectionKey.OP_CONNECT, this);
+        }
+    }
+
+    /**
+     * Operations this transfer is interested in after the connection is established.
+     */
+    abstract int interestOps();
+
+    @Override
+    public void onConnectable(SelectionKey key) throws IOException {
+        if (channel.finishConnect()) {
+            key.interestOps(interestOps());
+        }
+    }
+
+    @Override
+    public void onReadable(SelectionKey key) throws IOException {
+    }
+
+    @Override
+    public void onWritable(SelectionKey key) throws IOException {
+    }
+
+    @Override
+    public void onError(Exception e) {
+        abort(e);
+    }
+
+    /**
+     * Close the data connection and fail the transfer, if it is not finished yet.
+     */
+    void abort(Throwable cause) {
+        close();
+        done.completeExceptionally(cause);
+    }
+
+    void finish() {
+        close();
+        done.complete(transferred);
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Read the data connection until the end of stream and write the bytes to the sink.
+     */
+    static class Download extends DataTransfer {
+
+        private final WritableByteChannel sink;
+
+        Download(EventLoop loop, WritableByteChannel sink) {
+            super(loop);
+            this.sink = sink;
+        }
+
+        @Override
+        int interestOps() {
+            return SelectionKey.OP_READ;
+        }
+
+        @Override
+        public void onReadable(SelectionKey key) throws IOException {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int bytesRead = channel.read(buffer);
+            if (bytesRead < 0) {
+                finish();
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                sink.write(buffer);
+            }
+            transferred += bytesRead;
+        }
+    }
+
+    /**
+     * Read the source until the end and write the bytes to the data connection.
+     */
+    static class Upload extends DataTransfer {
+
+        private final ReadableByteChannel source;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+        Upload(EventLoop loop, ReadableByteChannel source) {
+            super(loop);
+            this.source = source;
+            buffer.flip();
+        }
+
+        @Override
+        int interestOps() {
+            return SelectionKey.OP_WRITE;
+        }
+
+        @Override
+        public void onWritable(SelectionKey key) throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int bytesRead = source.read(buffer);
+                buffer.flip();
+                if (bytesRead < 0) {
+                    finish();
+                    return;
+                }
+            }
+            transferred += channel.write(buffer);
+        }
+    }
+}
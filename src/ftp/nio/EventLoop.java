@@ -0,0 +1,118 @@
+package ftp.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Thread that drives many channels through one selector.
+ * Tasks submitted by {@link #execute(Runnable)} run on the loop thread between the selections,
+ * so the state of the channels is accessed only from this thread.
+ *
+ * @author Vojko Vladimir
+ */
+final class EventLoop implements Runnable, Executor {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Buffer shared by all channels of the loop for reading. Valid only during one event handling.
+     */
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Stop the loop. Handlers of all registered channels are notified by {@link ChannelHandler#onError(Exception)}.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            runTasks();
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            } catch (ClosedSelectorException e) {
+                break;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handle(key);
+            }
+        }
+        runTasks();
+
+        for (SelectionKey key : selector.keys()) {
+            ((ChannelHandler) key.attachment()).onError(new ClosedChannelException());
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        ChannelHandler handler = (ChannelHandler) key.attachment();
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                handler.onConnectable(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                handler.onReadable(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                handler.onWritable(key);
+            }
+        } catch (IOException e) {
+            handler.onError(e);
+        } catch (RuntimeException e) {
+            handler.onError(e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ftp.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking FTP engine. A small amount of event loop threads drives any amount of sessions
+ * and their data connections, so the threads and memory scale with the cores and not with the sessions.
+ * Sessions are assigned to the event loops in turn.
+ *
+ * @author Vojko Vladimir
+ */
+public class NioFTPEngine implements Closeable {
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Create engine with one event loop per available processor.
+     *
+     * @throws java.io.IOException If the selector can't be opened.
+     */
+    public NioFTPEngine() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create engine.
+     *
+     * @param threads amount of event loop threads.
+     * @throws java.io.IOException If the selector can't be opened.
+     */
+    public NioFTPEngine(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException();
+        }
+        loops = new EventLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new EventLoop("NioFTPEngine-" + (i + 1));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connect to the FTP server.
+     *
+     * @param host address of the host.
+     * @param port port of the server.
+     * @return future completed with the session when the server is ready.
+     */
+    public CompletableFuture<NioSession> connect(String host, int port) {
+        EventLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        try {
+            return new NioSession(loop).connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            return NioSession.failed(e);
+        }
+    }
+
+    /**
+     * Connect to the FTP server and login. The session is closed if the login fails.
+     *
+     * @param host address of the host.
+     * @param port port of the server.
+     * @param user user name.
+     * @param pass user password.
+     * @return future completed with the logged in session.
+     */
+    public CompletableFuture<NioSession> connect(String host, int port, final String user, final String pass) {
+        return connect(host, port).thenCompose(session -> session.login(user, pass).handle((reply, e) -> {
+            if (e != null) {
+                session.close();
+                throw (e instanceof CompletionException) ? (CompletionException) e : new CompletionException(e);
+            }
+            return session;
+        }));
+    }
+
+    /**
+     * Stop the event loops. All sessions are closed.
+     */
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+}
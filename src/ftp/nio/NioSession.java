@@ -0,0 +1,420 @@
+package ftp.nio;
+
+import ftp.RemoteFile;
+import ftp.connection.Command;
+import ftp.connection.Reply;
+import ftp.connection.ReplyCode;
+import ftp.connection.ReplyDecoder;
+import ftp.exception.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * FTP session driven by the {@link NioFTPEngine}.
+ * Commands are written and replies are decoded without blocking by the event loop thread of the session,
+ * the data connections are served by the same thread.
+ * <p>
+ * Methods can be called from any thread and return immediately. Commands are sent in the order of the calls
+ * and every returned future is completed by the final reply to its command. Negative replies complete
+ * the future exceptionally with the {@link ftp.exception.FTPException} matching the reply code.
+ * Dependent actions of the futures that are not async run on the event loop thread and must not block.
+ * <p>
+ * The session has one data connection at a time: a transfer (list, retrieve, store) enters passive mode
+ * only after the previous transfer of the session is completed, because most servers drop the passive listener
+ * of the previous PASV. Other commands are not delayed by the queued transfers.
+ *
+ * @author Vojko Vladimir
+ */
+public class NioSession {
+
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final String CRLF = "\r\n";
+    private static final String CONNECTION_CLOSED_BY_SERVER = "Connection closed by server";
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final ReplyDecoder decoder = new ReplyDecoder(CHARSET);
+    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+    private final Deque<CompletableFuture<Reply>> pending = new ArrayDeque<CompletableFuture<Reply>>();
+    private final ControlHandler handler = new ControlHandler();
+    private SelectionKey key;
+    private volatile boolean open = true;
+    private CompletableFuture<?> lastTransfer = CompletableFuture.completedFuture(null);
+
+    NioSession(EventLoop loop) throws IOException {
+        this.loop = loop;
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Start connecting to the server.
+     *
+     * @return future completed with this session when the server is ready.
+     */
+    CompletableFuture<NioSession> connect(final InetSocketAddress address) {
+        final CompletableFuture<Reply> greeting = new CompletableFuture<Reply>();
+        loop.execute(() -> {
+            pending.add(greeting);
+            try {
+                if (channel.connect(address)) {
+                    key = loop.register(channel, SelectionKey.OP_READ, handler);
+                } else {
+                    key = loop.register(channel, SelectionKey.OP_CONNECT, handler);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        });
+        return greeting.thenApply(reply -> {
+            if (!reply.isPositiveCompletion()) {
+                close();
+                throw new CompletionException(toException(reply));
+            }
+            return this;
+        });
+    }
+
+    /**
+     * Send command to the server.
+     *
+     * @param command command with arguments, without line terminator.
+     * @return future completed by the final reply, whatever its code is.
+     */
+    public CompletableFuture<Reply> sendCommand(final String command) {
+        final CompletableFuture<Reply> future = new CompletableFuture<Reply>();
+        loop.execute(() -> {
+            if (!open) {
+                future.completeExceptionally(new ClosedChannelException());
+                return;
+            }
+            pending.add(future);
+            write(ByteBuffer.wrap((command + CRLF).getBytes(CHARSET)));
+        });
+        return future;
+    }
+
+    /**
+     * Login to the server.
+     *
+     * @param user user name.
+     * @param pass user password.
+     * @return future completed by the final reply of the login.
+     */
+    public CompletableFuture<Reply> login(final String user, final String pass) {
+        return sendCommand(Command.USER + user).thenCompose(reply -> {
+            if (reply.isPositiveCompletion()) {
+                return CompletableFuture.completedFuture(reply);
+            }
+            checkReply(reply);
+            return sendCommand(Command.PASS + pass).thenApply(NioSession::checkLogin);
+        });
+    }
+
+    public CompletableFuture<Reply> noOperation() {
+        return sendCommand(Command.NOOP).thenApply(NioSession::checkReply);
+    }
+
+    public CompletableFuture<Reply> changeWorkingDirectory(String pathName) {
+        return sendCommand(Command.CHANGE_WORKING_DIRECTORY + pathName).thenApply(NioSession::checkReply);
+    }
+
+    public CompletableFuture<Reply> deleteFile(String pathName) {
+        return sendCommand(Command.DELETE + pathName).thenApply(NioSession::checkReply);
+    }
+
+    /**
+     * Get list of files of the directory.
+     *
+     * @param pathName path of the directory, or null for the working directory.
+     * @return future completed with the list of files.
+     */
+    public CompletableFuture<List<RemoteFile>> list(String pathName) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String command = (pathName == null) ? Command.LIST : Command.LIST + " " + pathName;
+
+        return transfer(command, new DataTransfer.Download(loop, Channels.newChannel(out))).thenApply(bytes -> {
+            byte[] listing = out.toByteArray();
+            List<RemoteFile> files = new ArrayList<RemoteFile>();
+            int start = 0;
+            for (int i = 0; i <= listing.length; i++) {
+                if (i == listing.length || listing[i] == '\n') {
+                    int end = (i > start && listing[i - 1] == '\r') ? i - 1 : i;
+                    // Lines that are not file entries (e.g., "total 42") are skipped.
+                    RemoteFile file = RemoteFile.fromListing(listing, start, end - start, CHARSET);
+                    if (file != null) {
+                        files.add(file);
+                    }
+                    start = i + 1;
+                }
+            }
+            return files;
+        });
+    }
+
+    /**
+     * Retrieve file from the server. The sink is written by the event loop thread, so it should not block
+     * for long (e.g., file channel).
+     *
+     * @param pathName path of the file on the server.
+     * @param sink     channel to write the file to.
+     * @return future completed with amount of read bytes.
+     */
+    public CompletableFuture<Long> retrieve(String pathName, WritableByteChannel sink) {
+        return transfer(Command.RETRIEVE + pathName, new DataTransfer.Download(loop, sink));
+    }
+
+    /**
+     * Store file on the server. The source is read by the event loop thread, so it should not block
+     * for long (e.g., file channel).
+     *
+     * @param source   channel to read the file from.
+     * @param pathName path of the file on the server.
+     * @return future completed with amount of written bytes.
+     */
+    public CompletableFuture<Long> store(ReadableByteChannel source, String pathName) {
+        return transfer(Command.STORE + pathName, new DataTransfer.Upload(loop, source));
+    }
+
+    /**
+     * Log out from the server and close the session.
+     *
+     * @return future completed when the session is closed.
+     */
+    public CompletableFuture<Void> quit() {
+        return sendCommand(Command.QUIT).handle((reply, e) -> {
+            close();
+            return null;
+        });
+    }
+
+    /**
+     * Close the connection. Commands waiting for the reply fail with {@link ClosedChannelException}.
+     */
+    public void close() {
+        open = false;
+        loop.execute(() -> fail(new ClosedChannelException()));
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Queue the transfer after the previous transfer of the session, whatever its result is.
+     */
+    private synchronized CompletableFuture<Long> transfer(final String command, final DataTransfer transfer) {
+        CompletableFuture<Long> next = lastTransfer.handle((result, e) -> null)
+                .thenComposeAsync(ignored -> startTransfer(command, transfer), loop);
+        lastTransfer = next;
+        return next;
+    }
+
+    /**
+     * Enter passive mode, connect the data connection and send the transfer command.
+     * The transfer is completed when both the data connection is closed and the final reply is received.
+     */
+    private CompletableFuture<Long> startTransfer(final String command, final DataTransfer transfer) {
+        return passive().thenComposeAsync(address -> {
+            try {
+                transfer.connect(address);
+            } catch (IOException e) {
+                transfer.abort(e);
+                return transfer.done;
+            }
+            CompletableFuture<Reply> reply = sendCommand(command).thenApply(NioSession::checkReply);
+            reply.whenComplete((r, e) -> {
+                if (e != null) {
+                    transfer.abort((e instanceof CompletionException) ? e.getCause() : e);
+                }
+            });
+            return transfer.done.thenCombine(reply, (bytes, r) -> bytes);
+        }, loop);
+    }
+
+    private CompletableFuture<InetSocketAddress> passive() {
+        return sendCommand(Command.PASSIVE).thenApply(reply -> {
+            checkReply(reply);
+            int startIndex = reply.text.indexOf('(') + 1;
+            int stopIndex = reply.text.indexOf(')');
+            String[] address = reply.text.substring(startIndex, stopIndex).split(",");
+
+            String host = address[0] + "." + address[1] + "." + address[2] + "." + address[3];
+            int port = Integer.parseInt(address[4]) * 256 + Integer.parseInt(address[5]);
+            return new InetSocketAddress(host, port);
+        });
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            if (writeQueue.isEmpty() && channel.isConnected()) {
+                channel.write(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                writeQueue.add(buffer);
+                if (channel.isConnected()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void dispatch(Reply reply) {
+        if (reply.code < 200) {
+            return;
+        }
+        CompletableFuture<Reply> future = pending.poll();
+        if (future != null) {
+            future.complete(reply);
+        }
+        if (reply.code == ReplyCode.SERVICE_UNAVAILABLE) {
+            fail(new ServiceUnavailableException(reply.text));
+        }
+    }
+
+    /**
+     * Close the connection and fail all commands waiting for the reply. Called from the loop thread.
+     */
+    private void fail(Throwable cause) {
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        writeQueue.clear();
+        CompletableFuture<Reply> future;
+        while ((future = pending.poll()) != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static Reply checkReply(Reply reply) {
+        if (reply.code >= 400) {
+            throw new CompletionException(toException(reply));
+        }
+        return reply;
+    }
+
+    private static Reply checkLogin(Reply reply) {
+        if (reply.code == ReplyCode.NEED_ACCOUNT_FOR_LOGIN) {
+            throw new CompletionException(new NeedAccountException(reply.text));
+        }
+        return checkReply(reply);
+    }
+
+    /**
+     * Get exception matching the negative reply.
+     *
+     * @param reply negative reply.
+     * @return exception of the reply code.
+     */
+    static FTPException toException(Reply reply) {
+        switch (reply.code) {
+            case ReplyCode.SERVICE_UNAVAILABLE:
+                return new ServiceUnavailableException(reply.text);
+            case ReplyCode.CANT_OPEN_DATA_CONNECTION:
+                return new CantOpenDataConnectionException(reply.text);
+            case ReplyCode.CONNECTION_CLOSED:
+                return new ConnectionClosedException(reply.text);
+            case ReplyCode.FILE_ACTION_NOT_TAKEN:
+                return new FileActionNotTakenException(reply.text);
+            case ReplyCode.LOCAL_ERROR_IN_PROCESSING:
+                return new LocalErrorInProcessingException(reply.text);
+            case ReplyCode.INSUFFICIENT_STORAGE_SPACE:
+                return new InsufficientStorageSpaceException(reply.text);
+            case ReplyCode.SYNTAX_ERROR:
+            case ReplyCode.SYNTAX_ERROR_IN_PARAMS_OR_ARGS:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED:
+            case ReplyCode.COMMAND_NOT_IMPLEMENTED_FOR_PARAM:
+                return new CommandNotImplementedException(reply.text);
+            case ReplyCode.NOT_LOGGED_IN:
+                return new NotLoggedInException(reply.text);
+            case ReplyCode.NEED_ACCOUNT_FOR_STORING_FILES:
+                return new NeedAccountException(reply.text);
+            case ReplyCode.FILE_UNAVAILABLE:
+                return new FileUnavailableException(reply.text);
+            case ReplyCode.UNKNOWN_PAGE_TYPE:
+                return new PageTypeUnknownException(reply.text);
+            case ReplyCode.FILE_ACTION_ABORTED:
+                return new FileActionAbortedException(reply.text);
+            case ReplyCode.FILE_NAME_NOT_ALLOWED:
+                return new FileNameNotAllowedException(reply.text);
+            default:
+                return new FTPException(reply.code + reply.text);
+        }
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * Events of the control connection.
+     */
+    private final class ControlHandler implements ChannelHandler {
+
+        @Override
+        public void onConnectable(SelectionKey key) throws IOException {
+            if (channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            }
+        }
+
+        @Override
+        public void onReadable(SelectionKey key) throws IOException {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                fail(new EOFException(CONNECTION_CLOSED_BY_SERVER));
+                return;
+            }
+            buffer.flip();
+            Reply reply;
+            while ((reply = decoder.decode(buffer)) != null) {
+                dispatch(reply);
+            }
+        }
+
+        @Override
+        public void onWritable(SelectionKey key) throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writeQueue.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            fail(e);
+        }
+    }
+}
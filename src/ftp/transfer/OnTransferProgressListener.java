@@ -0,0 +1,16 @@
+package ftp.transfer;
+
+/**
+ * Interface definition for a callback to be invoked when the aggregate progress of transfers changed.
+ *
+ * @author Vojko Vladimir
+ */
+public interface OnTransferProgressListener {
+    /**
+     * Called when bytes are transferred or transfer is finished.
+     * Might be called from different threads at the same time.
+     *
+     * @param progress aggregate progress of all transfers of the manager.
+     */
+    public void onTransferProgress(TransferProgress progress);
+}
@@ -0,0 +1,96 @@
+package ftp.transfer;
+
+import java.nio.file.Path;
+
+/**
+ * Description of the file transfer job executed by {@link TransferManager}.
+ *
+ * @author Vojko Vladimir
+ */
+public class Transfer {
+
+    /**
+     * Default priority of the transfer.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * Direction of the transfer.
+     */
+    public enum Direction {
+        /**
+         * Retrieve remote file and save it to the local file.
+         */
+        DOWNLOAD,
+        /**
+         * Store local file at the server site.
+         */
+        UPLOAD
+    }
+
+    private final Direction direction;
+    private final String remotePath;
+    private final Path localPath;
+    private final int priority;
+
+    /**
+     * Create transfer.
+     *
+     * @param direction  direction of the transfer.
+     * @param remotePath path with name of the remote file.
+     * @param localPath  path of the local file.
+     * @param priority   priority of the transfer. Transfers with higher priority are started first.
+     */
+    public Transfer(Direction direction, String remotePath, Path localPath, int priority) {
+        if (direction == null || remotePath == null || localPath == null) {
+            throw new NullPointerException();
+        }
+        this.direction = direction;
+        this.remotePath = remotePath;
+        this.localPath = localPath;
+        this.priority = priority;
+    }
+
+    /**
+     * Create download of the remote file to the local file with default priority.
+     *
+     * @param remotePath path with name of the remote file.
+     * @param localPath  path of the local file.
+     * @return download transfer.
+     */
+    public static Transfer download(String remotePath, Path localPath) {
+        return new Transfer(Direction.DOWNLOAD, remotePath, localPath, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Create upload of the local file to the remote file with default priority.
+     *
+     * @param localPath  path of the local file.
+     * @param remotePath path with name of the remote file.
+     * @return upload transfer.
+     */
+    public static Transfer upload(Path localPath, String remotePath) {
+        return new Transfer(Direction.UPLOAD, remotePath, localPath, DEFAULT_PRIORITY);
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    public Path getLocalPath() {
+        return localPath;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return direction + " " + remotePath + " " + localPath;
+    }
+}
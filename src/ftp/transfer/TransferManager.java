@@ -0,0 +1,367 @@
+package ftp.transfer;
+
+import ftp.FTPClient;
+import ftp.FTPClientPool;
+import ftp.RetryPolicy;
+import ftp.connection.OnBytesReadListener;
+import ftp.connection.OnBytesWriteListener;
+import ftp.exception.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Execute batches of file transfers concurrently over the sessions of the {@link FTPClientPool}.
+ * The amount of transfers running at the same time is bounded globally and for every server.
+ * Transfers with higher priority are started first, failed transfers are resumed by the new session
+ * according to the retry policy.
+ *
+ * @author Vojko Vladimir
+ */
+public class TransferManager {
+
+    private final FTPClientPool pool;
+    private final int maxPerHost;
+    private final RetryPolicy retryPolicy;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+    private final TransferProgress progress = new TransferProgress();
+    private volatile OnTransferProgressListener listener;
+    private long sequence = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Create transfer manager.
+     *
+     * @param pool        pool of sessions used by transfers.
+     * @param parallelism maximum amount of transfers running at the same time.
+     * @param maxPerHost  maximum amount of transfers running at the same time for one server.
+     */
+    public TransferManager(FTPClientPool pool, int parallelism, int maxPerHost) {
+        this(pool, parallelism, maxPerHost, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Create transfer manager.
+     *
+     * @param pool        pool of sessions used by transfers.
+     * @param parallelism maximum amount of transfers running at the same time.
+     * @param maxPerHost  maximum amount of transfers running at the same time for one server.
+     * @param retryPolicy policy of retrying failed transfers.
+     */
+    public TransferManager(FTPClientPool pool, int parallelism, int maxPerHost, RetryPolicy retryPolicy) {
+        if (parallelism < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = pool;
+        this.maxPerHost = maxPerHost;
+        this.retryPolicy = retryPolicy;
+
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TransferManager-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Submit the transfer to the server.
+     *
+     * @param host     address of the host.
+     * @param port     port of the server.
+     * @param user     user name.
+     * @param pass     user password.
+     * @param transfer transfer to execute.
+     * @return future with amount of transferred bytes.
+     */
+    public Future<Long> submit(String host, int port, String user, String pass, Transfer transfer) {
+        return submit(host, port, user, pass, Collections.singletonList(transfer)).get(0);
+    }
+
+    /**
+     * Submit the batch of transfers to the server.
+     *
+     * @param host      address of the host.
+     * @param port      port of the server.
+     * @param user      user name.
+     * @param pass      user password.
+     * @param transfers transfers to execute.
+     * @return futures with amount of transferred bytes, in the same order as transfers.
+     */
+    public List<Future<Long>> submit(String host, int port, String user, String pass,
+                                     Collection<Transfer> transfers) {
+        Site site = new Site(host, port, user, pass);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(transfers.size());
+
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException();
+            }
+            HostQueue queue = hosts.get(site.hostKey);
+            if (queue == null) {
+                queue = new HostQueue();
+                hosts.put(site.hostKey, queue);
+            }
+
+            for (Transfer transfer : transfers) {
+                Job job = new Job(site, transfer, queue, sequence++);
+                progress.onSubmitted();
+                futures.add(job);
+
+                if (queue.running < maxPerHost) {
+                    queue.running++;
+                    job.dispatched = true;
+                    executor.execute(job);
+                } else {
+                    queue.waiting.add(job);
+                }
+            }
+        }
+
+        return futures;
+    }
+
+    /**
+     * Get aggregate progress of all submitted transfers.
+     *
+     * @return progress of transfers.
+     */
+    public TransferProgress getProgress() {
+        return progress;
+    }
+
+    public void setProgressListener(OnTransferProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stop accepting new transfers. Already submitted transfers are executed.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (progress.getPending() == 0) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wait until all submitted transfers are finished after shutdown.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the time unit of the timeout argument.
+     * @return true if all transfers are finished, false if the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (progress.getPending() > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+        }
+        return executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Execute the transfer by the pooled session. If it fails, retry it by the new session,
+     * continuing from the already transferred part of the file.
+     */
+    private long execute(Site site, Transfer transfer) throws IOException, FTPException {
+        ProgressListener progressListener = new ProgressListener();
+        int attempt = 1;
+        while (true) {
+            FTPClient client = null;
+            try {
+                client = pool.borrow(site.host, site.port, site.user, site.pass);
+                long bytes = transfer(client, transfer, attempt > 1, progressListener);
+                pool.release(client);
+                return bytes;
+            } catch (IOException e) {
+                if (client != null) {
+                    pool.invalidate(client);
+                }
+                if (!retryPolicy.shouldRetry(e, attempt)) {
+                    throw e;
+                }
+            } catch (FTPException e) {
+                boolean retry = retryPolicy.shouldRetry(e, attempt);
+                if (client != null) {
+                    if (RetryPolicy.isTransient(e)) {
+                        pool.invalidate(client);
+                    } else {
+                        pool.release(client);
+                    }
+                }
+                if (!retry) {
+                    throw e;
+                }
+            }
+            progress.onRetried();
+            retryPolicy.await(attempt++);
+        }
+    }
+
+    private long transfer(FTPClient client, Transfer transfer, boolean resume, ProgressListener progressListener)
+            throws IOException, FTPException {
+        switch (transfer.getDirection()) {
+            case DOWNLOAD:
+                if (resume) {
+                    client.resumeFile(transfer.getRemotePath(), transfer.getLocalPath(), progressListener);
+                } else {
+                    client.getFile(transfer.getRemotePath(), transfer.getLocalPath(), progressListener);
+                }
+                return Files.size(transfer.getLocalPath());
+            case UPLOAD:
+                if (resume) {
+                    client.resumeSendFile(transfer.getLocalPath(), transfer.getRemotePath(), progressListener);
+                } else {
+                    client.sendFile(transfer.getLocalPath(), transfer.getRemotePath(), progressListener);
+                }
+                return Files.size(transfer.getLocalPath());
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private void onJobDone(Job job) {
+        if (job.isCancelled()) {
+            progress.onFailed();
+        } else {
+            try {
+                job.get();
+                progress.onCompleted();
+            } catch (ExecutionException e) {
+                progress.onFailed();
+            } catch (InterruptedException e) {
+                progress.onFailed();
+            }
+        }
+
+        synchronized (this) {
+            if (job.dispatched) {
+                Job next = job.queue.waiting.poll();
+                if (next != null) {
+                    next.dispatched = true;
+                    executor.execute(next);
+                } else {
+                    job.queue.running--;
+                }
+            } else {
+                job.queue.waiting.remove(job);
+            }
+            if (shutdown && progress.getPending() == 0) {
+                executor.shutdown();
+            }
+            notifyAll();
+        }
+        notifyListener();
+    }
+
+    private void notifyListener() {
+        OnTransferProgressListener listener = this.listener;
+        if (listener != null) {
+            listener.onTransferProgress(progress);
+        }
+    }
+
+    /**
+     * Server and user of the transfers.
+     */
+    private static final class Site {
+        final String host;
+        final int port;
+        final String user;
+        final String pass;
+        final String hostKey;
+
+        Site(String host, int port, String user, String pass) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.pass = pass;
+            this.hostKey = host + ":" + port;
+        }
+    }
+
+    /**
+     * Transfers of one server waiting for the free slot.
+     */
+    private static final class HostQueue {
+        final PriorityQueue<Job> waiting = new PriorityQueue<Job>();
+        int running = 0;
+    }
+
+    /**
+     * Transfer ordered by priority and then by submission order.
+     */
+    private final class Job extends FutureTask<Long> implements Comparable<Job> {
+        final HostQueue queue;
+        final int priority;
+        final long sequence;
+        boolean dispatched = false;
+
+        Job(final Site site, final Transfer transfer, HostQueue queue, long sequence) {
+            super(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return execute(site, transfer);
+                }
+            });
+            this.queue = queue;
+            this.priority = transfer.getPriority();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            return (sequence < other.sequence) ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        @Override
+        protected void done() {
+            onJobDone(this);
+        }
+    }
+
+    /**
+     * Add bytes transferred by one transfer to the aggregate progress.
+     * Resumed attempts report the progress of the whole file, so only bytes beyond the already reported
+     * amount are added.
+     */
+    private final class ProgressListener implements OnBytesReadListener, OnBytesWriteListener {
+        long reported = 0;
+
+        @Override
+        public void onBytesRead(long bytesAmount, long totalRead) {
+            onBytes(totalRead);
+        }
+
+        @Override
+        public void onBytesWrite(long bytesAmount, long totalWritten) {
+            onBytes(totalWritten);
+        }
+
+        private void onBytes(long total) {
+            if (total > reported) {
+                progress.onBytesTransferred(total - reported);
+                reported = total;
+                notifyListener();
+            }
+        }
+    }
+}
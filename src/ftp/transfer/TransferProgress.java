@@ -0,0 +1,86 @@
+package ftp.transfer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate progress of all transfers submitted to the {@link TransferManager}.
+ *
+ * @author Vojko Vladimir
+ */
+public class TransferProgress {
+
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retried = new AtomicInteger();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    void onSubmitted() {
+        submitted.incrementAndGet();
+    }
+
+    void onCompleted() {
+        completed.incrementAndGet();
+    }
+
+    void onFailed() {
+        failed.incrementAndGet();
+    }
+
+    void onRetried() {
+        retried.incrementAndGet();
+    }
+
+    void onBytesTransferred(long bytes) {
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    /**
+     * @return amount of submitted transfers.
+     */
+    public int getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return amount of successfully completed transfers.
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return amount of transfers failed after all retries.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return amount of retries of failed transfers.
+     */
+    public int getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * @return amount of transfers that are waiting or running.
+     */
+    public int getPending() {
+        return getSubmitted() - getCompleted() - getFailed();
+    }
+
+    /**
+     * @return total amount of bytes of files transferred by all transfers.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    @Override
+    public String toString() {
+        return "submitted=" + getSubmitted() + " completed=" + getCompleted() + " failed=" + getFailed()
+                + " retried=" + getRetried() + " bytes=" + getBytesTransferred();
+    }
+}
@@ -0,0 +1,159 @@
+package ftp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link ListingCache}.
+ *
+ * @author Vojko Vladimir
+ */
+class ListingCacheTest {
+
+    private static List<RemoteFile> listing(String name) {
+        return Collections.singletonList(RemoteFile.fromMachineListing("type=file;size=1; " + name));
+    }
+
+    @Test
+    void normalizesPaths() {
+        assertEquals("/", ListingCache.normalize("/"));
+        assertEquals("/", ListingCache.normalize(""));
+        assertEquals("/", ListingCache.normalize("/./"));
+        assertEquals("/", ListingCache.normalize("/.."));
+        assertEquals("/pub", ListingCache.normalize("/pub/"));
+        assertEquals("/pub/docs", ListingCache.normalize("//pub///docs//"));
+        assertEquals("/pub/docs", ListingCache.normalize("/pub/./docs/."));
+        assertEquals("/docs", ListingCache.normalize("/pub/../docs"));
+        assertEquals("/docs", ListingCache.normalize("/../../docs"));
+        assertEquals("/pub/.hidden/..x", ListingCache.normalize("/pub/.hidden/..x"));
+    }
+
+    @Test
+    void resolvesPathsAgainstDirectory() {
+        assertEquals("/pub", ListingCache.resolve("/pub/", null));
+        assertEquals("/pub/docs", ListingCache.resolve("/pub", "docs"));
+        assertEquals("/docs", ListingCache.resolve("/pub", "../docs/"));
+        assertEquals("/etc", ListingCache.resolve("/pub", "/etc"));
+        assertEquals("/a", ListingCache.resolve("/", "a"));
+    }
+
+    @Test
+    void findsListingByNormalizedPath() {
+        ListingCache cache = new ListingCache();
+        cache.put("/pub/docs/", listing("a"));
+
+        assertNotNull(cache.get("/pub/docs"));
+        assertNotNull(cache.get("/pub/./docs"));
+        assertNotNull(cache.get("/pub/x/../docs/"));
+        assertNull(cache.get("/pub"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void returnsCopiesOfListings() {
+        ListingCache cache = new ListingCache();
+        List<RemoteFile> files = new ArrayList<RemoteFile>(listing("a"));
+        cache.put("/pub", files);
+        files.clear();
+
+        ArrayList<RemoteFile> cached = cache.get("/pub");
+        assertEquals(1, cached.size());
+        cached.clear();
+        assertEquals(1, cache.get("/pub").size());
+    }
+
+    @Test
+    void invalidatesParentSelfAndSubdirectories() {
+        ListingCache cache = new ListingCache();
+        cache.put("/", listing("root"));
+        cache.put("/pub", listing("pub"));
+        cache.put("/pub/docs", listing("docs"));
+        cache.put("/pub/docs/old", listing("old"));
+        cache.put("/pub/docs/old/deeper", listing("deeper"));
+        cache.put("/pub/docs2", listing("sibling"));
+        cache.put("/pub/other", listing("other"));
+
+        cache.invalidate("/pub/./docs/");
+
+        assertNull(cache.get("/pub"));
+        assertNull(cache.get("/pub/docs"));
+        assertNull(cache.get("/pub/docs/old"));
+        assertNull(cache.get("/pub/docs/old/deeper"));
+        assertNotNull(cache.get("/"));
+        assertNotNull(cache.get("/pub/docs2"));
+        assertNotNull(cache.get("/pub/other"));
+    }
+
+    @Test
+    void invalidatesParentOfTopLevelEntry() {
+        ListingCache cache = new ListingCache();
+        cache.put("/", listing("root"));
+        cache.put("/etc", listing("etc"));
+
+        cache.invalidate("/readme.txt");
+
+        assertNull(cache.get("/"));
+        assertNotNull(cache.get("/etc"));
+    }
+
+    @Test
+    void invalidatesEverythingBelowRoot() {
+        ListingCache cache = new ListingCache();
+        cache.put("/", listing("root"));
+        cache.put("/pub", listing("pub"));
+        cache.put("/pub/docs", listing("docs"));
+
+        cache.invalidate("/");
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedListing() {
+        ListingCache cache = new ListingCache(2, ListingCache.DEFAULT_TTL);
+        cache.put("/a", listing("a"));
+        cache.put("/b", listing("b"));
+        assertNotNull(cache.get("/a"));
+
+        cache.put("/c", listing("c"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/c"));
+    }
+
+    @Test
+    void expiresListingsAfterTimeToLive() throws InterruptedException {
+        ListingCache cache = new ListingCache(ListingCache.DEFAULT_MAX_ENTRIES, 1);
+        cache.put("/pub", listing("a"));
+
+        Thread.sleep(10);
+
+        assertNull(cache.get("/pub"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new ListingCache(0, ListingCache.DEFAULT_TTL);
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new ListingCache(ListingCache.DEFAULT_MAX_ENTRIES, 0);
+            }
+        });
+    }
+}
@@ -0,0 +1,171 @@
+package ftp;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link RemoteFile} parsers.
+ *
+ * @author Vojko Vladimir
+ */
+class RemoteFileTest {
+
+    private static RemoteFile fromListing(String line, Charset charset) {
+        byte[] bytes = line.getBytes(charset);
+        return RemoteFile.fromListing(bytes, 0, bytes.length, charset);
+    }
+
+    @Test
+    void parsesListingFile() {
+        RemoteFile file = fromListing("-rw-r--r--   1 owner group  5000000 Jan  1 10:00 big.bin",
+                StandardCharsets.UTF_8);
+
+        assertEquals("big.bin", file.getName());
+        assertEquals(RemoteFile.TYPE_FILE, file.getType());
+        assertFalse(file.isFolder());
+        assertEquals("-rw-r--r--", file.getPermissions());
+        assertEquals("owner", file.getOwner());
+        assertEquals("group", file.getGroup());
+        assertEquals(5000000, file.getSize());
+        assertEquals("Jan", file.getMonth());
+        assertEquals(1, file.getDay());
+        assertEquals("10:00", file.getTime());
+        assertNull(file.getModified());
+    }
+
+    @Test
+    void parsesListingLineInsideBuffer() {
+        byte[] bytes = "total 8\r\ndrwxr-xr-x 2 ftp ftp 4096 Mar 15  2021 pub\r\n".getBytes(StandardCharsets.UTF_8);
+        int offset = "total 8\r\n".length();
+        int length = bytes.length - offset - 2;
+
+        RemoteFile file = RemoteFile.fromListing(bytes, offset, length, StandardCharsets.UTF_8);
+        bytes[offset + length - 1] = 'X';
+
+        assertEquals("pub", file.getName());
+        assertEquals(RemoteFile.TYPE_DIRECTORY, file.getType());
+        assertTrue(file.isFolder());
+        assertEquals("2021", file.getTime());
+    }
+
+    @Test
+    void keepsSpacesOfTheListedName() {
+        RemoteFile file = fromListing("-rw-r--r-- 1 u g 12 Feb 29 23:59 my  report.txt", StandardCharsets.UTF_8);
+
+        assertEquals("my  report.txt", file.getName());
+    }
+
+    @Test
+    void classifiesListingByPermissionsNotLinks() {
+        RemoteFile hardLinked = fromListing("-rw-r--r-- 3 u g 10 Jan 1 10:00 hard", StandardCharsets.UTF_8);
+        RemoteFile directory = fromListing("drwxr-xr-x 1 u g 0 Jan 1 10:00 win", StandardCharsets.UTF_8);
+        RemoteFile link = fromListing("lrwxrwxrwx 1 u g 7 Jan 1 10:00 current -> v2", StandardCharsets.UTF_8);
+
+        assertEquals(RemoteFile.TYPE_FILE, hardLinked.getType());
+        assertFalse(hardLinked.isFolder());
+        assertEquals(RemoteFile.TYPE_DIRECTORY, directory.getType());
+        assertTrue(directory.isFolder());
+        assertEquals(RemoteFile.TYPE_LINK, link.getType());
+        assertFalse(link.isFolder());
+        assertEquals("current -> v2", link.getName());
+    }
+
+    @Test
+    void decodesListedNamesByCharset() {
+        String line = "-rw-r--r-- 1 vojko ftp 3 Jan 1 10:00 čaša 日本.txt";
+
+        assertEquals("čaša 日本.txt", fromListing(line, StandardCharsets.UTF_8).getName());
+        assertEquals("café", fromListing("-rw-r--r-- 1 u g 3 Jan 1 10:00 café", StandardCharsets.ISO_8859_1)
+                .getName());
+    }
+
+    @Test
+    void skipsLinesThatAreNotEntries() {
+        assertNull(fromListing("total 42", StandardCharsets.UTF_8));
+        assertNull(fromListing("", StandardCharsets.UTF_8));
+        assertNull(fromListing("-rw-r--r-- 1 u g", StandardCharsets.UTF_8));
+        assertNull(fromListing("-rw-r--r-- x u g 10 Jan 1 10:00 name", StandardCharsets.UTF_8));
+        assertNull(fromListing("-rw-r--r-- 1 u g big Jan 1 10:00 name", StandardCharsets.UTF_8));
+        assertNull(fromListing("-rw-r--r-- 1 u g 10 Jan x 10:00 name", StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesMachineListingFile() {
+        RemoteFile file = RemoteFile.fromMachineListing(
+                "type=file;size=1830;modify=19980108221110;perm=adfrw;UNIX.mode=0644;unix.owner=ftp; data.csv");
+
+        assertEquals("data.csv", file.getName());
+        assertEquals(RemoteFile.TYPE_FILE, file.getType());
+        assertFalse(file.isFolder());
+        assertEquals(1830, file.getSize());
+        assertEquals(Instant.parse("1998-01-08T22:11:10Z"), file.getModified());
+        assertEquals("Jan", file.getMonth());
+        assertEquals(8, file.getDay());
+        assertEquals("22:11", file.getTime());
+        assertEquals("adfrw", file.getPerm());
+        assertEquals("0644", file.getPermissions());
+        assertEquals("ftp", file.getOwner());
+        assertNull(file.getGroup());
+    }
+
+    @Test
+    void parsesFactNamesAndTypeCaseInsensitively() {
+        RemoteFile file = RemoteFile.fromMachineListing("Type=DIR;Modify=20240229235959.5; Photos");
+
+        assertEquals(RemoteFile.TYPE_DIRECTORY, file.getType());
+        assertTrue(file.isFolder());
+        assertEquals(Instant.parse("2024-02-29T23:59:59.5Z"), file.getModified());
+        assertEquals(-1, file.getSize());
+    }
+
+    @Test
+    void marksOnlyDirectoriesAsFolders() {
+        String[] types = {"file", "cdir", "pdir", "OS.unix=slink:/target", "link"};
+        for (String type : types) {
+            RemoteFile file = RemoteFile.fromMachineListing("type=" + type + "; entry");
+            assertFalse(file.isFolder(), type);
+        }
+        assertEquals(RemoteFile.TYPE_CURRENT_DIRECTORY, RemoteFile.fromMachineListing("type=cdir; /pub").getType());
+        assertEquals(RemoteFile.TYPE_PARENT_DIRECTORY, RemoteFile.fromMachineListing("type=pdir; ..").getType());
+    }
+
+    @Test
+    void keepsSpacesAndSemicolonsOfTheName() {
+        RemoteFile file = RemoteFile.fromMachineListing("type=file;size=5; my file; v2.txt");
+
+        assertEquals("my file; v2.txt", file.getName());
+        assertEquals(5, file.getSize());
+    }
+
+    @Test
+    void ignoresUnknownAndMalformedFacts() {
+        RemoteFile file = RemoteFile.fromMachineListing("x.custom=1;size=lots;broken;modify=yesterday; name");
+
+        assertEquals("name", file.getName());
+        assertNull(file.getType());
+        assertFalse(file.isFolder());
+        assertEquals(-1, file.getSize());
+        assertNull(file.getModified());
+    }
+
+    @Test
+    void parsesEntryWithoutFacts() {
+        RemoteFile file = RemoteFile.fromMachineListing(" lonely");
+
+        assertEquals("lonely", file.getName());
+        assertNull(file.getType());
+    }
+
+    @Test
+    void parsesTimeValues() {
+        assertEquals(Instant.parse("2023-07-01T08:09:10Z"), RemoteFile.parseTimeValue("20230701080910"));
+        assertEquals(Instant.parse("2023-07-01T08:09:10.123Z"), RemoteFile.parseTimeValue("20230701080910.123"));
+        assertNull(RemoteFile.parseTimeValue("2023070108"));
+        assertNull(RemoteFile.parseTimeValue("20231301080910"));
+    }
+}
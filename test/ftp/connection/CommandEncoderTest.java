@@ -0,0 +1,122 @@
+package ftp.connection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link CommandEncoder}.
+ *
+ * @author Vojko Vladimir
+ */
+class CommandEncoderTest {
+
+    private static byte[] encode(CommandEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void appendsCommandWithArgumentAndCrLf() throws IOException {
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        encoder.append(Command.DELETE, "notes.txt");
+
+        assertArrayEquals(utf8(Command.DELETE + "notes.txt\r\n"), encode(encoder));
+    }
+
+    @Test
+    void appendsCommandWithoutArgument() throws IOException {
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        encoder.append(Command.NOOP, null);
+
+        assertArrayEquals(utf8(Command.NOOP + "\r\n"), encode(encoder));
+    }
+
+    @Test
+    void writesPipelinedCommandsTogetherAndClears() throws IOException {
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        assertTrue(encoder.isEmpty());
+
+        encoder.append("USER ", "anonymous");
+        encoder.append("PASS ", "guest");
+        assertFalse(encoder.isEmpty());
+
+        final int[] writes = {0};
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes[0]++;
+                super.write(b, off, len);
+            }
+        };
+        encoder.writeTo(out);
+
+        assertEquals(1, writes[0]);
+        assertArrayEquals(utf8("USER anonymous\r\nPASS guest\r\n"), out.toByteArray());
+        assertTrue(encoder.isEmpty());
+        assertEquals(0, encode(encoder).length);
+    }
+
+    @Test
+    void encodesNonAsciiArgumentByCharset() throws IOException {
+        String path = "/mapa/žaba 日本/café";
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        encoder.append("CWD ", path);
+        encoder.append("PWD", null);
+
+        assertArrayEquals(utf8("CWD " + path + "\r\nPWD\r\n"), encode(encoder));
+    }
+
+    @Test
+    void replacesUnmappableCharacters() throws IOException {
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.ISO_8859_1);
+        encoder.append("RETR ", "café €.txt");
+
+        assertArrayEquals("RETR café ?.txt\r\n".getBytes(StandardCharsets.ISO_8859_1), encode(encoder));
+    }
+
+    @Test
+    void growsBufferForLongCommands() throws IOException {
+        StringBuilder ascii = new StringBuilder();
+        StringBuilder wide = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            ascii.append("dir/");
+            wide.append('日');
+        }
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        encoder.append("MKD ", ascii.toString());
+        encoder.append("MKD ", "x" + wide);
+
+        assertArrayEquals(utf8("MKD " + ascii + "\r\nMKD x" + wide + "\r\n"), encode(encoder));
+    }
+
+    @Test
+    void clearsBufferWhenWriteFails() {
+        CommandEncoder encoder = new CommandEncoder(StandardCharsets.UTF_8);
+        encoder.append(Command.NOOP, null);
+
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                encoder.writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("closed");
+                    }
+                });
+            }
+        });
+        assertTrue(encoder.isEmpty());
+    }
+}
@@ -0,0 +1,201 @@
+package ftp.connection;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link ReplyDecoder}.
+ *
+ * @author Vojko Vladimir
+ */
+class ReplyDecoderTest {
+
+    private final ReplyDecoder decoder = new ReplyDecoder(StandardCharsets.UTF_8);
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodesSingleLineReply() {
+        Reply reply = decoder.decode(bytes("200 Command okay.\r\n"));
+
+        assertNotNull(reply);
+        assertEquals(200, reply.code);
+        assertEquals(" Command okay.", reply.text);
+        assertFalse(decoder.hasPartialReply());
+    }
+
+    @Test
+    void decodesReplyWithoutText() {
+        Reply reply = decoder.decode(bytes("226\r\n"));
+
+        assertEquals(226, reply.code);
+        assertEquals("", reply.text);
+    }
+
+    @Test
+    void acceptsBareLineFeed() {
+        Reply reply = decoder.decode(bytes("230 Logged in\n"));
+
+        assertEquals(230, reply.code);
+        assertEquals(" Logged in", reply.text);
+    }
+
+    @Test
+    void terminatesMultiLineReplyByCodeAndSpace() {
+        Reply reply = decoder.decode(bytes("211-Features:\r\n SIZE\r\n MDTM\r\n211 End\r\n"));
+
+        assertEquals(211, reply.code);
+        assertEquals("Features:\n SIZE\n MDTM", reply.text);
+        assertFalse(decoder.hasPartialReply());
+    }
+
+    @Test
+    void terminatesMultiLineReplyByBareCode() {
+        Reply reply = decoder.decode(bytes("250-Listing\r\n type=file; a\r\n250\r\n"));
+
+        assertEquals(250, reply.code);
+        assertEquals("Listing\n type=file; a", reply.text);
+    }
+
+    @Test
+    void doesNotEndMultiLineReplyOnCodeInsideTheText() {
+        ByteBuffer in = bytes("211-Status:\r\n"
+                + " connected, last reply 211 ok\r\n"
+                + "211-still the same reply\r\n"
+                + "200 other code\r\n"
+                + "211 End\r\n");
+
+        Reply reply = decoder.decode(in);
+
+        assertEquals(211, reply.code);
+        assertEquals("Status:\n connected, last reply 211 ok\n211-still the same reply\n200 other code", reply.text);
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    void skipsLinesWithoutCodeBeforeReply() {
+        Reply reply = decoder.decode(bytes("garbage\r\n12\r\n220 ready\r\n"));
+
+        assertEquals(220, reply.code);
+        assertEquals(" ready", reply.text);
+    }
+
+    @Test
+    void passesNonAsciiTextThrough() {
+        Reply single = decoder.decode(bytes("257 \"/mapa/žaba 日本\" created\r\n"));
+        Reply multi = decoder.decode(bytes("250-čaša\r\n café €\r\n250 End\r\n"));
+
+        assertEquals(" \"/mapa/žaba 日本\" created", single.text);
+        assertEquals("čaša\n café €", multi.text);
+    }
+
+    @Test
+    void decodesReplySplitIntoChunks() {
+        byte[] data = "211-Features:\r\n UTF8\r\n211 End\r\n".getBytes(StandardCharsets.UTF_8);
+
+        Reply reply = null;
+        for (int i = 0; i < data.length; i++) {
+            assertNull(reply, "reply completed before the last byte");
+            reply = decoder.decode(ByteBuffer.wrap(data, i, 1));
+            if (reply == null) {
+                assertTrue(decoder.hasPartialReply());
+            }
+        }
+
+        assertNotNull(reply);
+        assertEquals(211, reply.code);
+        assertEquals("Features:\n UTF8", reply.text);
+        assertFalse(decoder.hasPartialReply());
+    }
+
+    @Test
+    void decodesMultiByteCharacterSplitBetweenChunks() {
+        byte[] data = "550 ž\r\n".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(decoder.decode(ByteBuffer.wrap(data, 0, 5)));
+        Reply reply = decoder.decode(ByteBuffer.wrap(data, 5, data.length - 5));
+
+        assertEquals(" ž", reply.text);
+    }
+
+    @Test
+    void growsLineBufferForLongLines() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            name.append('n');
+        }
+
+        Reply reply = decoder.decode(bytes("550 " + name + "\r\n"));
+
+        assertEquals(" " + name, reply.text);
+    }
+
+    @Test
+    void consumesBytesOnlyUpToTheEndOfTheReply() {
+        ByteBuffer in = bytes("150 Opening\r\n226 Done\r\n");
+
+        Reply first = decoder.decode(in);
+        assertEquals(150, first.code);
+        assertTrue(in.hasRemaining());
+
+        Reply second = decoder.decode(in);
+        assertEquals(226, second.code);
+        assertFalse(in.hasRemaining());
+        assertNull(decoder.decode(in));
+    }
+
+    @Test
+    void fillsReusedReply() {
+        Reply reused = new Reply();
+
+        Reply first = decoder.decode(bytes("331 Password\r\n"), reused);
+        assertSame(reused, first);
+        assertEquals(331, reused.code);
+        assertEquals(" Password", reused.text);
+
+        Reply second = decoder.decode(bytes("230-Welcome\r\n230 Logged in\r\n"), reused);
+        assertSame(reused, second);
+        assertEquals(230, reused.code);
+        assertEquals("Welcome", reused.text);
+    }
+
+    @Test
+    void leavesReusedReplyUntouchedWhileIncomplete() {
+        Reply reused = new Reply();
+        reused.code = 200;
+        reused.text = " previous";
+
+        assertNull(decoder.decode(bytes("220-Welcome\r\n"), reused));
+        assertEquals(200, reused.code);
+        assertEquals(" previous", reused.text);
+    }
+
+    @Test
+    void forgetsPartialReplyOnReset() {
+        assertNull(decoder.decode(bytes("211-Features:\r\n SIZE\r\n21")));
+        assertTrue(decoder.hasPartialReply());
+
+        decoder.reset();
+        assertFalse(decoder.hasPartialReply());
+
+        Reply reply = decoder.decode(bytes("200 ok\r\n"));
+        assertEquals(200, reply.code);
+        assertEquals(" ok", reply.text);
+    }
+
+    @Test
+    void parsesCodeFromDigits() {
+        assertEquals(421, ReplyDecoder.parseCode("421 Timeout".getBytes(StandardCharsets.US_ASCII), 11));
+        assertEquals(211, ReplyDecoder.parseCode("211-".getBytes(StandardCharsets.US_ASCII), 4));
+        assertEquals(226, ReplyDecoder.parseCode("226".getBytes(StandardCharsets.US_ASCII), 3));
+        assertEquals(-1, ReplyDecoder.parseCode("22".getBytes(StandardCharsets.US_ASCII), 2));
+        assertEquals(-1, ReplyDecoder.parseCode("2a6 x".getBytes(StandardCharsets.US_ASCII), 5));
+        assertEquals(-1, ReplyDecoder.parseCode("2260".getBytes(StandardCharsets.US_ASCII), 4));
+    }
+}
@@ -0,0 +1,134 @@
+package ftp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link Histogram}.
+ *
+ * @author Vojko Vladimir
+ */
+class HistogramTest {
+
+    private static final int LAST_INDEX = 60 * 16 - 1;
+
+    private static void assertInBucket(long value) {
+        int index = Histogram.index(value);
+        assertTrue(Histogram.lowestValue(index) <= value, "lowest of " + value);
+        assertTrue(Histogram.highestValue(index) >= value, "highest of " + value);
+    }
+
+    @Test
+    void indexesSmallValuesLinearly() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, Histogram.index(value));
+            assertEquals(value, Histogram.lowestValue((int) value));
+            assertEquals(value, Histogram.highestValue((int) value));
+        }
+    }
+
+    @Test
+    void splitsPowersOfTwoIntoSixteenBuckets() {
+        assertEquals(32, Histogram.index(32));
+        assertEquals(32, Histogram.index(33));
+        assertEquals(33, Histogram.index(34));
+        assertEquals(47, Histogram.index(63));
+        assertEquals(48, Histogram.index(64));
+        assertEquals(48, Histogram.index(67));
+        assertEquals(49, Histogram.index(68));
+    }
+
+    @Test
+    void coversWholeRangeOfLong() {
+        assertEquals(LAST_INDEX, Histogram.index(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Histogram.highestValue(LAST_INDEX));
+        assertInBucket(Long.MAX_VALUE);
+        assertInBucket(Long.MAX_VALUE - 1);
+    }
+
+    @Test
+    void placesValuesInBucketsAroundPowersOfTwo() {
+        for (int exponent = 0; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            assertInBucket(power - 1);
+            assertInBucket(power);
+            assertInBucket(power + 1);
+        }
+    }
+
+    @Test
+    void keepsBucketsContiguousAndOrdered() {
+        for (int index = 0; index < LAST_INDEX; index++) {
+            assertEquals(Histogram.highestValue(index) + 1, Histogram.lowestValue(index + 1), "bucket " + index);
+            assertEquals(index, Histogram.index(Histogram.lowestValue(index)));
+            assertEquals(index, Histogram.index(Histogram.highestValue(index)));
+        }
+    }
+
+    @Test
+    void keepsRelativePrecision() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int index = Histogram.index(value);
+            long width = Histogram.highestValue(index) - Histogram.lowestValue(index);
+            assertTrue(width <= value / 16, "width of " + value);
+        }
+    }
+
+    @Test
+    void reportsPercentilesWithinPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 16.0);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 16.0);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void recordsNegativeValuesAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void reportsZeroWhenEmpty() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void addsOtherHistogram() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        first.record(10);
+        first.record(20);
+        second.record(5000);
+
+        first.add(second);
+
+        assertEquals(3, first.getCount());
+        assertEquals(5000, first.getMax());
+        assertEquals(5030 / 3.0, first.getMean(), 1e-9);
+        assertEquals(20, first.getValueAtPercentile(50));
+        assertEquals(5000, first.getValueAtPercentile(100));
+        assertEquals(1, second.getCount());
+    }
+}